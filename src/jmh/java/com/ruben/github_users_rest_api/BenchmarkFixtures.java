@@ -0,0 +1,142 @@
+package com.ruben.github_users_rest_api;
+
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Payloads shaped like the github responses the app handles, shared by the benchmarks.
+ */
+public class BenchmarkFixtures {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // the owner type isn't visible outside the dto package, so repos start from the owner json.
+    private static final String OWNER_JSON = """
+            {"owner": {
+              "login": "%1$s",
+              "id": 583231,
+              "node_id": "MDQ6VXNlcjU4MzIzMQ==",
+              "avatar_url": "https://avatars.githubusercontent.com/u/583231?v=4",
+              "gravatar_id": "",
+              "url": "https://api.github.com/users/%1$s",
+              "html_url": "https://github.com/%1$s",
+              "repos_url": "https://api.github.com/users/%1$s/repos",
+              "type": "User",
+              "user_view_type": "public",
+              "site_admin": false
+            }}""";
+
+    public static GithubUserDto user(String login) {
+        GithubUserDto user = new GithubUserDto();
+        user.setLogin(login);
+        user.setId(583231L);
+        user.setNodeId("MDQ6VXNlcjU4MzIzMQ==");
+        user.setAvatarUrl("https://avatars.githubusercontent.com/u/583231?v=4");
+        user.setGravatarId("");
+        user.setUrl("https://api.github.com/users/" + login);
+        user.setHtmlUrl("https://github.com/" + login);
+        user.setFollowersUrl("https://api.github.com/users/" + login + "/followers");
+        user.setFollowingUrl("https://api.github.com/users/" + login + "/following{/other_user}");
+        user.setGistsUrl("https://api.github.com/users/" + login + "/gists{/gist_id}");
+        user.setStarredUrl("https://api.github.com/users/" + login + "/starred{/owner}{/repo}");
+        user.setSubscriptionsUrl("https://api.github.com/users/" + login + "/subscriptions");
+        user.setOrganizationsUrl("https://api.github.com/users/" + login + "/orgs");
+        user.setReposUrl("https://api.github.com/users/" + login + "/repos");
+        user.setEventsUrl("https://api.github.com/users/" + login + "/events{/privacy}");
+        user.setReceivedEventsUrl("https://api.github.com/users/" + login + "/received_events");
+        user.setType("User");
+        user.setUserViewType("public");
+        user.setSiteAdmin(false);
+        user.setName("The Octocat");
+        user.setCompany("@github");
+        user.setBlog("https://github.blog");
+        user.setLocation("San Francisco");
+        user.setPublicRepos(8);
+        user.setPublicGists(8);
+        user.setFollowers(17000);
+        user.setFollowing(9);
+        user.setCreatedAt("2011-01-25T18:44:36Z");
+        user.setUpdatedAt("2025-01-22T12:19:33Z");
+        return user;
+    }
+
+    public static GithubRepoDto[] repos(String login, int count) {
+        GithubRepoDto[] repos = new GithubRepoDto[count];
+        for (int i = 0; i < count; i++) {
+            String name = "repository-" + i;
+            GithubRepoDto repo = withOwner(login);
+            repo.setId(1296269L + i);
+            repo.setNodeId("MDEwOlJlcG9zaXRvcnkxMjk2MjY5");
+            repo.setName(name);
+            repo.setFullName(login + "/" + name);
+            repo.setHtmlUrl("https://github.com/" + login + "/" + name);
+            repo.setDescription("This your first repo! It is number " + i + " of " + count + ".");
+            repo.setUrl("https://api.github.com/repos/" + login + "/" + name);
+            repo.setCreatedAt("2011-01-26T19:01:12Z");
+            repo.setUpdatedAt("2025-01-22T12:19:33Z");
+            repo.setPushedAt("2024-12-18T09:15:07Z");
+            repo.setGitUrl("git://github.com/" + login + "/" + name + ".git");
+            repo.setSshUrl("git@github.com:" + login + "/" + name + ".git");
+            repo.setCloneUrl("https://github.com/" + login + "/" + name + ".git");
+            repo.setSvnUrl("https://svn.github.com/" + login + "/" + name);
+            repo.setHomepage("https://github.com");
+            repo.setSize(108 + i);
+            repo.setStargazersCount(80 * i);
+            repo.setWatchersCount(80 * i);
+            repo.setLanguage(i % 2 == 0 ? "Java" : "TypeScript");
+            repo.setHasIssues(true);
+            repo.setHasProjects(true);
+            repo.setHasWiki(true);
+            repo.setForks_count(9 * i);
+            repo.setOpenIssuesCount(i % 7);
+            repo.setAllowForking(true);
+            repo.setTopics(List.of("octocat", "atom", "electron", "api"));
+            repo.setVisibility("public");
+            repo.setForks(9 * i);
+            repo.setOpenIssues(i % 7);
+            repo.setWatchers(80 * i);
+            repo.setDefaultBranch("main");
+            repos[i] = repo;
+        }
+        return repos;
+    }
+
+    public static GithubUserReplyDto userReply(String login) {
+        GithubUserReplyDto reply = new GithubUserReplyDto();
+        reply.setReply(user(login));
+        reply.setMetaData(metaData(login.hashCode()));
+        return reply;
+    }
+
+    public static GithubReposReplyDto reposReply(String login, int count) {
+        GithubReposReplyDto reply = new GithubReposReplyDto();
+        reply.setRepos(repos(login, count));
+        reply.setLastPage(Math.max(1, (count + 99) / 100));
+        reply.setMetaData(metaData(count));
+        return reply;
+    }
+
+    public static MetaData metaData(long checksum) {
+        MetaData metaData = new MetaData();
+        metaData.setChecksum(checksum);
+        metaData.setTimestamp(Instant.parse("2025-01-22T12:19:33Z"));
+        metaData.setEtag("W/\"7a2bc1f3e45d6c8b9a0f1e2d3c4b5a69\"");
+        return metaData;
+    }
+
+    private static GithubRepoDto withOwner(String login) {
+        try {
+            return MAPPER.readValue(OWNER_JSON.formatted(login), GithubRepoDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ruben.github_users_rest_api;
+
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the broker message conversion of a repos reply in each wire format, configured the same way as in AppConfiguration.
+ * toMessage records the size of the message it writes, reported by WireSizeProfiler as messageBytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageConverterBenchmark {
+    @Param({"100", "1000"})
+    int repoCount;
+
+    @Param({"json", "smile"})
+    String format;
+
+    MessageConverter converter;
+    GithubReposReplyDto reply;
+    Message message;
+
+    @Setup
+    public void setUp() {
+        converter = new AppConfiguration().contentTypeConverter(format);
+        reply = BenchmarkFixtures.reposReply("octocat", repoCount);
+        message = converter.toMessage(reply, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message toMessage() {
+        Message written = converter.toMessage(reply, new MessageProperties());
+        WireSizeProfiler.record(written.getBody().length);
+        return written;
+    }
+
+    @Benchmark
+    public Object fromMessage() {
+        return converter.fromMessage(message);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return converter.fromMessage(converter.toMessage(reply, new MessageProperties()));
+    }
+}
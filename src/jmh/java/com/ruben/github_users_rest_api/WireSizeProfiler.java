@@ -0,0 +1,45 @@
+package com.ruben.github_users_rest_api;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports the size of the broker messages a benchmark writes as a messageBytes result, so it lands in the results next to the scores.
+ * Benchmarks record the size of what they wrote, the ones that don't record anything get no result.
+ */
+public class WireSizeProfiler implements InternalProfiler {
+    private static volatile long messageBytes = -1;
+
+    public static void record(long bytes) {
+        messageBytes = bytes;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Size of the broker messages written";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        messageBytes = -1;
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams,
+                                                       IterationResult result) {
+        long bytes = messageBytes;
+        if (bytes < 0) {
+            return List.of();
+        }
+        return List.of(new ScalarResult("messageBytes", bytes, "B", AggregationPolicy.AVG));
+    }
+}
@@ -0,0 +1,66 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.BenchmarkFixtures;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures CacheService.getFromCache when a consumer caches a reply.
+ * Usernames are drawn from a pool larger than the cache, so hits, changed checksums and evictions all show up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheServiceBenchmark {
+    @Param({"100", "10000"})
+    int maxCacheSize;
+
+    // usernames requested per cache slot.
+    @Param({"1", "4"})
+    int keysPerSlot;
+
+    CacheService cacheService;
+    ReplyCache<GithubUserReplyDto> cache;
+    String[] usernames;
+    GithubUserReplyDto reply;
+    final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cacheService = new CacheService(1, maxCacheSize);
+        cache = cacheService.createCache();
+        usernames = new String[maxCacheSize * keysPerSlot];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "user-" + i;
+        }
+        reply = BenchmarkFixtures.userReply("octocat");
+        for (int i = 0; i < maxCacheSize; i++) {
+            cache.put(usernames[i], reply);
+        }
+    }
+
+    @Benchmark
+    public GithubUserReplyDto getFromCache() {
+        int i = Math.floorMod(next.getAndIncrement(), usernames.length);
+        return cacheService.getFromCache(usernames[i], cache, GithubUserReplyDto::getMetaData, reply, i, new MetaData());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public GithubUserReplyDto getFromCacheContended() {
+        return getFromCache();
+    }
+}
@@ -0,0 +1,45 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.BenchmarkFixtures;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how GithubUserReposService combines a user and their repos into the user-repos reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserReposMappingBenchmark {
+    @Param({"10", "100", "1000"})
+    int repoCount;
+
+    GithubUserReposService service;
+    GithubUserReplyDto userReply;
+    GithubReposReplyDto reposReply;
+
+    @Setup
+    public void setUp() {
+        // combining doesn't touch the consumers.
+        service = new GithubUserReposService(null, null, Duration.ofSeconds(10));
+        userReply = BenchmarkFixtures.userReply("octocat");
+        reposReply = BenchmarkFixtures.reposReply("octocat", repoCount);
+    }
+
+    @Benchmark
+    public GithubUserReposDto combine() {
+        return service.combine(userReply, reposReply);
+    }
+}
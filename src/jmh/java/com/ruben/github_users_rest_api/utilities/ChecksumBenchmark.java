@@ -0,0 +1,68 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ruben.github_users_rest_api.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the checksums over github response bodies, from a single user up to many pages of repos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChecksumBenchmark {
+    // 0 is a single user body, otherwise the number of repos split into pages of 100.
+    @Param({"0", "100", "1000"})
+    int repoCount;
+
+    byte[] body;
+    List<ByteBuffer> pages;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        pages = new ArrayList<>();
+        if (repoCount == 0) {
+            pages.add(ByteBuffer.wrap(objectMapper.writeValueAsBytes(BenchmarkFixtures.user("octocat"))));
+        } else {
+            var repos = BenchmarkFixtures.repos("octocat", repoCount);
+            for (int from = 0; from < repoCount; from += 100) {
+                var page = Arrays.copyOfRange(repos, from, Math.min(repoCount, from + 100));
+                pages.add(ByteBuffer.wrap(objectMapper.writeValueAsBytes(page)));
+            }
+        }
+
+        int size = pages.stream().mapToInt(ByteBuffer::remaining).sum();
+        ByteBuffer joined = ByteBuffer.allocate(size);
+        pages.forEach(page -> joined.put(page.duplicate()));
+        body = joined.array();
+    }
+
+    @Benchmark
+    public long crc32() {
+        return Checksum.getCRC32Checksum(body);
+    }
+
+    @Benchmark
+    public long crc32c() {
+        return Checksum.getCRC32CChecksum(body);
+    }
+
+    @Benchmark
+    public long crc32cPages() {
+        return Checksum.getCRC32CChecksum(pages);
+    }
+}
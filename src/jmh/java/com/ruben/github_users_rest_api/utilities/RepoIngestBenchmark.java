@@ -0,0 +1,75 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.ruben.github_users_rest_api.BenchmarkFixtures;
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how pages of github repos were checksummed and mapped before and after hashing the raw bodies.
+ * Before, the decoded repos were written out again as a string, and the string's bytes hashed with CRC32.
+ * Now the raw pages are hashed with CRC32C, and the repos are read from the same bytes with a prebuilt reader.
+ * The gc profiler reports the bytes allocated per operation of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RepoIngestBenchmark {
+    // repos split into pages of 100, as github sends them.
+    @Param({"100", "1000"})
+    int repoCount;
+
+    ObjectMapper objectMapper;
+    ObjectReader reposReader;
+    List<byte[]> pages;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        reposReader = objectMapper.readerFor(GithubRepoDto[].class);
+
+        var repos = BenchmarkFixtures.repos("octocat", repoCount);
+        pages = new ArrayList<>();
+        for (int from = 0; from < repoCount; from += 100) {
+            pages.add(objectMapper.writeValueAsBytes(Arrays.copyOfRange(repos, from, Math.min(repoCount, from + 100))));
+        }
+    }
+
+    @Benchmark
+    public void reserializedCrc32(Blackhole blackhole) throws Exception {
+        var repos = new ArrayList<GithubRepoDto>();
+        for (byte[] page : pages) {
+            repos.addAll(Arrays.asList(objectMapper.readValue(page, GithubRepoDto[].class)));
+        }
+        var merged = repos.toArray(GithubRepoDto[]::new);
+        String data = objectMapper.writeValueAsString(merged);
+        blackhole.consume(Checksum.getCRC32Checksum(data.getBytes()));
+        blackhole.consume(merged);
+    }
+
+    @Benchmark
+    public void rawBytesCrc32c(Blackhole blackhole) throws Exception {
+        blackhole.consume(Checksum.getCRC32CChecksum(pages.stream().map(ByteBuffer::wrap).toList()));
+        var repos = new ArrayList<GithubRepoDto>();
+        for (byte[] page : pages) {
+            repos.addAll(Arrays.asList(reposReader.<GithubRepoDto[]>readValue(page)));
+        }
+        blackhole.consume(repos.toArray(GithubRepoDto[]::new));
+    }
+}
@@ -1,37 +1,78 @@
 package com.ruben.github_users_rest_api;
 
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ruben.github_users_rest_api.dto.LeanGithubModule;
+import com.ruben.github_users_rest_api.services.GithubRateLimiter;
+import com.ruben.github_users_rest_api.services.ListenerAutoscaler;
+import com.ruben.github_users_rest_api.utilities.SmileMessageConverter;
+import com.ruben.github_users_rest_api.utilities.TimedMessageConverter;
+import com.ruben.github_users_rest_api.utilities.Timing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Info;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.config.ContainerCustomizer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.JacksonUtils;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 /**
- * This is the configuration class. It defines the queues and reply routing.
+ * This is the configuration class. It defines the queues and reply routing, and the fanout exchange for cache changes.
  * In addition, it also defines the open api spec, jackson serializer and the webclient for calling github.
+ * Scheduling is enabled for the hot key refresher.
  */
 @Configuration
 @EnableAutoConfiguration
+@EnableScheduling
 public class AppConfiguration {
 
     public static final String GET_USER_QUEUE = "get.user.queue";
     public static final String GET_REPOS_QUEUE = "get.repos.queue";
     public static final String GET_USER_REPOS_QUEUE = "get.user-repos.queue";
+    public static final String GET_REPOS_PAGE_QUEUE = "get.repos-page.queue";
+    public static final String GET_USERS_BATCH_QUEUE = "get.users-batch.queue";
+    public static final String GET_REPOS_BATCH_QUEUE = "get.repos-batch.queue";
+    public static final String GET_USER_REPOS_BATCH_QUEUE = "get.user-repos-batch.queue";
 
     public static final String ROUTING_KEY_USER = "request.user";
     public static final String ROUTING_KEY_REPOS = "request.repos.routing";
     public static final String ROUTING_KEY_USER_REPOS = "request.user-repos.routing";
+    public static final String ROUTING_KEY_REPOS_PAGE = "request.repos-page.routing";
+    public static final String ROUTING_KEY_USERS_BATCH = "request.users-batch.routing";
+    public static final String ROUTING_KEY_REPOS_BATCH = "request.repos-batch.routing";
+    public static final String ROUTING_KEY_USER_REPOS_BATCH = "request.user-repos-batch.routing";
 
     public static final String EXCHANGE = "message.exchange";
+    public static final String CACHE_EXCHANGE = "cache.fanout.exchange";
 
     @Bean
     public OpenAPI customOpenAPI() {
@@ -56,14 +97,52 @@ public class AppConfiguration {
         return new Queue(GET_USER_REPOS_QUEUE, false);
     }
 
+    @Bean
+    public Queue getReposPageQueue() {
+        return new Queue(GET_REPOS_PAGE_QUEUE, false);
+    }
+
+    @Bean
+    public Queue getUsersBatchQueue() {
+        return new Queue(GET_USERS_BATCH_QUEUE, false);
+    }
+
+    @Bean
+    public Queue getReposBatchQueue() {
+        return new Queue(GET_REPOS_BATCH_QUEUE, false);
+    }
+
+    @Bean
+    public Queue getUserReposBatchQueue() {
+        return new Queue(GET_USER_REPOS_BATCH_QUEUE, false);
+    }
+
     @Bean
     public DirectExchange exchange() {
         return new DirectExchange(EXCHANGE);
     }
 
     @Bean
-    public Binding bindingUserReposQueue(Queue getUserQueue, DirectExchange exchange) {
-        return BindingBuilder.bind(getUserQueue).to(exchange).with(ROUTING_KEY_USER_REPOS);
+    public FanoutExchange cacheExchange() {
+        return new FanoutExchange(CACHE_EXCHANGE);
+    }
+
+    // Every service instance gets its own queue of cache change notices, removed when it disconnects.
+    @Bean
+    @Profile("service")
+    public Queue cacheChangeQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    @Profile("service")
+    public Binding bindingCacheChangeQueue(Queue cacheChangeQueue, FanoutExchange cacheExchange) {
+        return BindingBuilder.bind(cacheChangeQueue).to(cacheExchange);
+    }
+
+    @Bean
+    public Binding bindingUserReposQueue(Queue getUserReposQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(getUserReposQueue).to(exchange).with(ROUTING_KEY_USER_REPOS);
     }
 
     @Bean
@@ -77,15 +156,109 @@ public class AppConfiguration {
     }
 
     @Bean
-    public RabbitTemplate rabbitTemplate(final ConnectionFactory connectionFactory) {
+    public Binding bindingReposPageQueue(Queue getReposPageQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(getReposPageQueue).to(exchange).with(ROUTING_KEY_REPOS_PAGE);
+    }
+
+    @Bean
+    public Binding bindingUsersBatchQueue(Queue getUsersBatchQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(getUsersBatchQueue).to(exchange).with(ROUTING_KEY_USERS_BATCH);
+    }
+
+    @Bean
+    public Binding bindingReposBatchQueue(Queue getReposBatchQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(getReposBatchQueue).to(exchange).with(ROUTING_KEY_REPOS_BATCH);
+    }
+
+    @Bean
+    public Binding bindingUserReposBatchQueue(Queue getUserReposBatchQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(getUserReposBatchQueue).to(exchange).with(ROUTING_KEY_USER_REPOS_BATCH);
+    }
+
+    @Bean
+    public RabbitTemplate rabbitTemplate(final ConnectionFactory connectionFactory, MessageConverter messageConverter) {
         final var rabbitTemplate = new RabbitTemplate(connectionFactory);
-        rabbitTemplate.setMessageConverter(producerJackson2MessageConverter());
+        rabbitTemplate.setMessageConverter(messageConverter);
         return rabbitTemplate;
     }
 
+    // Records how long requests waited in their queue before a consumer picked them up.
+    @Bean
+    @Profile("service")
+    public ContainerCustomizer<SimpleMessageListenerContainer> queueWaitCustomizer(MeterRegistry meterRegistry) {
+        return container -> container.addAfterReceivePostProcessors(message -> {
+            Timing.recordQueueWait(message, meterRegistry);
+            return message;
+        });
+    }
+
+    // Listeners run on virtual threads, so every consumer blocking on github costs next to nothing.
+    // Concurrency and prefetch default to the app.amqp.listener values, and can be set per listener id,
+    // e.g. app.amqp.listener.user.max-concurrency.
+    // With autoscaling on, the request queue containers don't scale themselves, ListenerAutoscaler sizes them.
     @Bean
-    public Jackson2JsonMessageConverter producerJackson2MessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    @Profile("service")
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            ContainerCustomizer<SimpleMessageListenerContainer> queueWaitCustomizer,
+            Environment environment,
+            @Value("${app.amqp.listener.concurrency:10}") int concurrency,
+            @Value("${app.amqp.listener.max-concurrency:200}") int maxConcurrency,
+            @Value("${app.amqp.listener.prefetch:1}") int prefetch,
+            @Value("${app.amqp.autoscale.enabled:true}") boolean autoscale) {
+        final var factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setTaskExecutor(new VirtualThreadTaskExecutor("rabbit-listener-"));
+        factory.setContainerCustomizer(container -> {
+            final var prefix = "app.amqp.listener." + container.getListenerId() + ".";
+            if (!autoscale || !ListenerAutoscaler.isAutoscaled(container)) {
+                container.setMaxConcurrentConsumers(environment.getProperty(prefix + "max-concurrency", Integer.class, maxConcurrency));
+            }
+            container.setConcurrentConsumers(environment.getProperty(prefix + "concurrency", Integer.class, concurrency));
+            container.setPrefetchCount(environment.getProperty(prefix + "prefetch", Integer.class, prefetch));
+            queueWaitCustomizer.configure(container);
+        });
+        return factory;
+    }
+
+    // Non blocking request/reply for the rest tier, replies come back on direct reply-to and are matched by correlation id.
+    // Listeners answer to the reply-to of the request, so replies never pass through the request queues.
+    @Bean
+    @Profile("rest")
+    public AsyncRabbitTemplate asyncRabbitTemplate(RabbitTemplate rabbitTemplate,
+                                                   @Value("${app.amqp.reply-timeout:30s}") Duration replyTimeout) {
+        final var asyncRabbitTemplate = new AsyncRabbitTemplate(rabbitTemplate);
+        asyncRabbitTemplate.setReceiveTimeout(replyTimeout.toMillis());
+        return asyncRabbitTemplate;
+    }
+
+    // The converter for templates and listeners, timed so serialization shows up next to the broker latency.
+    @Bean
+    public MessageConverter messageConverter(MeterRegistry meterRegistry,
+                                             @Value("${app.amqp.format:json}") String format,
+                                             @Value("${app.github.lean:false}") boolean lean) {
+        return new TimedMessageConverter(contentTypeConverter(format, lean), meterRegistry);
+    }
+
+    public ContentTypeDelegatingMessageConverter contentTypeConverter(String format) {
+        return contentTypeConverter(format, false);
+    }
+
+    // Reads json and smile by the message content type, so nodes sending either format interoperate.
+    // Messages are written in the configured format. In lean mode the github fields that were never set are left out.
+    public ContentTypeDelegatingMessageConverter contentTypeConverter(String format, boolean lean) {
+        final var modules = lean ? new Module[]{new LeanGithubModule()} : new Module[0];
+        final var json = new Jackson2JsonMessageConverter(JacksonUtils.enhancedObjectMapper().registerModules(modules));
+        final var smile = new SmileMessageConverter(modules);
+        final var converter = new ContentTypeDelegatingMessageConverter(switch (format) {
+            case "json" -> json;
+            case "smile" -> smile;
+            default -> throw new IllegalArgumentException("unknown app.amqp.format " + format + ", expected json or smile");
+        });
+        converter.addDelegate(MessageProperties.CONTENT_TYPE_JSON, json);
+        converter.addDelegate(SmileMessageConverter.CONTENT_TYPE, smile);
+        return converter;
     }
 
     @Bean
@@ -96,11 +269,58 @@ public class AppConfiguration {
         return mapper;
     }
 
+    // The connection pool for github, its size, pending acquires and idle connections are published as
+    // reactor.netty.connection.provider.* metrics.
+    @Bean(destroyMethod = "dispose")
+    ConnectionProvider githubConnectionProvider(@Value("${app.github.http.max-connections:100}") int maxConnections,
+                                                @Value("${app.github.http.pending-acquire-max:500}") int pendingAcquireMax,
+                                                @Value("${app.github.http.pending-acquire-timeout:5s}") Duration pendingAcquireTimeout,
+                                                @Value("${app.github.http.max-idle-time:30s}") Duration maxIdleTime,
+                                                @Value("${app.github.http.max-life-time:5m}") Duration maxLifeTime,
+                                                @Value("${app.github.http.evict-interval:30s}") Duration evictInterval) {
+        return ConnectionProvider.builder("github")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .metrics(true)
+                .build();
+    }
+
+    // Every github response feeds its rate limit headers into the rate limiter.
+    // The builder from spring boot records http.client.requests, the github latency by uri and status.
+    // HTTP/2 is negotiated over TLS when github offers it.
+    // Responses are read into memory whole, so the buffer has to fit a full page of app.github.per-page repos.
     @Bean
-    WebClient gitHubWebClient(@Value("${app.github.api-url}") String apiUrl) {
-        return WebClient.builder()
+    WebClient gitHubWebClient(WebClient.Builder webClientBuilder,
+                              @Value("${app.github.api-url}") String apiUrl,
+                              GithubRateLimiter rateLimiter,
+                              ConnectionProvider githubConnectionProvider,
+                              @Value("${app.github.http.connect-timeout:5s}") Duration connectTimeout,
+                              @Value("${app.github.http.http2:true}") boolean http2,
+                              @Value("${app.github.http.dns-cache-ttl:5m}") Duration dnsCacheTtl,
+                              @Value("${app.github.max-in-memory-size:16MB}") DataSize maxInMemorySize) {
+        var httpClient = HttpClient.create(githubConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .resolver(resolver -> resolver.cacheMaxTimeToLive(dnsCacheTtl));
+        if (apiUrl.startsWith("https")) {
+            httpClient = httpClient.secure();
+            if (http2) {
+                httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+            }
+        }
+
+        return webClientBuilder
                 .baseUrl(apiUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) maxInMemorySize.toBytes()))
                 .defaultHeader("Accept", "application/vnd.github.v3+json")
+                .filter(ExchangeFilterFunction.ofResponseProcessor(response -> {
+                    rateLimiter.update(response.headers().asHttpHeaders());
+                    return Mono.just(response);
+                }))
                 .build();
     }
 }
\ No newline at end of file
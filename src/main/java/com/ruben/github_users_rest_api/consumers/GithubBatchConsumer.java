@@ -0,0 +1,95 @@
+package com.ruben.github_users_rest_api.consumers;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.GithubBatchRequestDto;
+import com.ruben.github_users_rest_api.dto.GithubReposBatchReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserBatchReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReposBatchReplyDto;
+import lombok.val;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This consumer handles batches of usernames sent in a single message.
+ * Each username goes through the regular consumer, so caching, coalescing and the rate limit still apply,
+ * with a bounded number of usernames fetched at a time.
+ * A cached only batch is answered right away with just the usernames the service has cached.
+ */
+@Service
+@Profile("service")
+public class GithubBatchConsumer {
+    private final GithubUserConsumer userConsumer;
+    private final GithubReposConsumer reposConsumer;
+    private final GithubUserReposConsumer userReposConsumer;
+    private final int concurrency;
+
+    public GithubBatchConsumer(GithubUserConsumer userConsumer,
+                               GithubReposConsumer reposConsumer,
+                               GithubUserReposConsumer userReposConsumer,
+                               @Value("${app.batch.concurrency:8}") int concurrency) {
+        this.userConsumer = userConsumer;
+        this.reposConsumer = reposConsumer;
+        this.userReposConsumer = userReposConsumer;
+        this.concurrency = concurrency;
+    }
+
+    @RabbitListener(id = "users-batch", queues = AppConfiguration.GET_USERS_BATCH_QUEUE)
+    public GithubUserBatchReplyDto getUsers(GithubBatchRequestDto request) {
+        val reply = new GithubUserBatchReplyDto();
+        reply.setReplies(request.isCachedOnly()
+                ? cached(request.getUsernames(), userConsumer::getCachedUser)
+                : fanOut(request.getUsernames(), userConsumer::getUser));
+        return reply;
+    }
+
+    @RabbitListener(id = "repos-batch", queues = AppConfiguration.GET_REPOS_BATCH_QUEUE)
+    public GithubReposBatchReplyDto getRepos(GithubBatchRequestDto request) {
+        val reply = new GithubReposBatchReplyDto();
+        reply.setReplies(request.isCachedOnly()
+                ? cached(request.getUsernames(), reposConsumer::getCachedRepos)
+                : fanOut(request.getUsernames(), reposConsumer::getRepos));
+        return reply;
+    }
+
+    @RabbitListener(id = "user-repos-batch", queues = AppConfiguration.GET_USER_REPOS_BATCH_QUEUE)
+    public GithubUserReposBatchReplyDto getUserRepos(GithubBatchRequestDto request) {
+        val reply = new GithubUserReposBatchReplyDto();
+        reply.setReplies(request.isCachedOnly()
+                ? cached(request.getUsernames(), userReposConsumer::getCachedUserRepos)
+                : fanOut(request.getUsernames(), userReposConsumer::getUserRepos));
+        return reply;
+    }
+
+    // Looks every username up in the cache, usernames that would need github are left out.
+    private <T> Map<String, T> cached(List<String> usernames, Function<String, T> lookup) {
+        Map<String, T> replies = new LinkedHashMap<>();
+        for (String username : usernames) {
+            T reply = lookup.apply(username);
+            if (reply != null) {
+                replies.put(username, reply);
+            }
+        }
+        return replies;
+    }
+
+    // Fetches up to the configured number of usernames at a time, the replies keep the requested order.
+    private <T> Map<String, T> fanOut(List<String> usernames, Function<String, T> fetch) {
+        Map<String, T> replies = Flux.fromIterable(usernames)
+                .flatMapSequential(username -> Mono.fromCallable(() -> fetch.apply(username))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .map(reply -> Map.entry(username, reply)), concurrency)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, LinkedHashMap::new)
+                .block();
+        return replies != null ? replies : Map.of();
+    }
+}
@@ -1,79 +1,215 @@
 package com.ruben.github_users_rest_api.consumers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.ruben.github_users_rest_api.dto.GithubReposPageRequestDto;
 import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
 import com.ruben.github_users_rest_api.dto.MetaData;
 import com.ruben.github_users_rest_api.dto.GithubRepoDto;
 import com.ruben.github_users_rest_api.AppConfiguration;
 import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import com.ruben.github_users_rest_api.services.CacheBroadcaster;
 import com.ruben.github_users_rest_api.services.CacheService;
+import com.ruben.github_users_rest_api.services.GithubRateLimiter;
+import com.ruben.github_users_rest_api.services.GithubRequestHedger;
+import com.ruben.github_users_rest_api.services.HotKeyRefresher;
+import com.ruben.github_users_rest_api.services.ReplyCache;
+import com.ruben.github_users_rest_api.services.RequestCoalescer;
 import com.ruben.github_users_rest_api.utilities.Checksum;
+import com.ruben.github_users_rest_api.utilities.LeanGithubParser;
+import com.ruben.github_users_rest_api.utilities.LinkHeader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.val;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.HashMap;
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 
 /**
  * This consumer handles the request for getting repos for a certain user.
  * It handles messaging via Rabbit MQ.
+ * Repos are paged through with the github Link header, either all at once or one page per request.
  */
 @Service
 @Profile("service")
 public class GithubReposConsumer {
     private final Logger logger = LoggerFactory.getLogger(GithubReposConsumer.class);
 
+    // fetches the pages of repos for the cached ETag, charged to the budget at the given priority.
+    private interface ReposFetch extends BiFunction<String, GithubRateLimiter.Priority, Mono<List<ResponseEntity<byte[]>>>> {
+    }
+
     private final WebClient webClient;
-    private final ObjectMapper objectMapper;
+    private final ObjectReader reposReader;
+    // only the fields the api serves are parsed.
+    private final boolean lean;
 
-    private final HashMap<String, GithubReposReplyDto> reposCache;
+    private final ReplyCache<GithubReposReplyDto> reposCache;
+    // streamed pages, kept in memory only and apart from the whole accounts so a large account can't evict them.
+    private final ReplyCache<GithubReposReplyDto> pageCache;
     private final CacheService cacheService;
+    private final RequestCoalescer requestCoalescer;
+    private final GithubRateLimiter rateLimiter;
+    private final GithubRequestHedger hedger;
+    private final CacheBroadcaster cacheBroadcaster;
+    private final HotKeyRefresher hotKeyRefresher;
+
+    private final Timer checksumTimer;
+    private final Timer deserializeTimer;
+    private final Counter staleServedCounter;
+
+    private final int perPage;
+    private final int pageConcurrency;
 
     public GithubReposConsumer(WebClient gitHubWebClient,
                                ObjectMapper objectMapper,
-                               CacheService cacheService) {
-        this.objectMapper = objectMapper;
+                               CacheService cacheService,
+                               RequestCoalescer requestCoalescer,
+                               GithubRateLimiter rateLimiter,
+                               GithubRequestHedger hedger,
+                               CacheBroadcaster cacheBroadcaster,
+                               HotKeyRefresher hotKeyRefresher,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.github.per-page:100}") int perPage,
+                               @Value("${app.github.page-concurrency:4}") int pageConcurrency,
+                               @Value("${app.cache.pages.max-size:200}") int pageCacheSize,
+                               @Value("${app.github.lean:false}") boolean lean) {
+        this.reposReader = objectMapper.readerFor(GithubRepoDto[].class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.lean = lean;
 
         this.webClient = gitHubWebClient;
-        this.reposCache = new HashMap<>();
+        this.reposCache = cacheService.createCache("repos", GithubReposReplyDto.class);
+        this.pageCache = cacheService.createCache(pageCacheSize);
         this.cacheService = cacheService;
+        this.requestCoalescer = requestCoalescer;
+        this.rateLimiter = rateLimiter;
+        this.hedger = hedger;
+        this.cacheBroadcaster = cacheBroadcaster;
+        this.hotKeyRefresher = hotKeyRefresher;
+        this.checksumTimer = meterRegistry.timer("github.checksum", "resource", "repos");
+        this.deserializeTimer = meterRegistry.timer("github.deserialize", "resource", "repos");
+        this.staleServedCounter = meterRegistry.counter("cache.stale.served", "cache", "repos");
+        this.perPage = perPage;
+        this.pageConcurrency = pageConcurrency;
+        cacheBroadcaster.register("repos", reposCache, GithubReposReplyDto.class, GithubReposReplyDto::getMetaData);
+        // hot keys are refreshed in the background, even an evicted one doesn't take the budget kept back for misses.
+        hotKeyRefresher.register("repos", reposCache, GithubReposReplyDto::getMetaData,
+                username -> requestRepos(reposCache, username, 1, (etag, priority) -> getRepoMono(username, etag, priority),
+                        GithubRateLimiter.Priority.REFRESH));
     }
 
 
-    // Consumer for get repositories request
-    @RabbitListener(queues = AppConfiguration.GET_REPOS_QUEUE)
-    @SendTo(AppConfiguration.GET_REPOS_QUEUE)
+    // Consumer for get repositories request, returns every page of the user's repos.
+    @RabbitListener(id = "repos", queues = AppConfiguration.GET_REPOS_QUEUE)
     public GithubReposReplyDto getRepos(String username) {
+        hotKeyRefresher.record("repos", username);
+        return fetchRepos(reposCache, username, 1, (etag, priority) -> getRepoMono(username, etag, priority));
+    }
+
+    // Consumer for a single page of repositories, used to stream users with many repos.
+    @RabbitListener(id = "repos-page", queues = AppConfiguration.GET_REPOS_PAGE_QUEUE)
+    public GithubReposReplyDto getReposPage(GithubReposPageRequestDto request) {
+        val username = request.getUsername();
+        val page = request.getPage();
+        return fetchRepos(pageCache, username + "?page=" + page, page,
+                (etag, priority) -> getRepoPageMono(username, page, etag, priority).map(List::of));
+    }
+
+    // All of the user's repos when they are answered from the cache, or null when github has to be called.
+    public GithubReposReplyDto getCachedRepos(String username) {
+        return servedFromCache(reposCache, username, 1, (etag, priority) -> getRepoMono(username, etag, priority));
+    }
+
+    private GithubReposReplyDto fetchRepos(ReplyCache<GithubReposReplyDto> cache, String cacheKey, int page, ReposFetch fetch) {
+        val cached = servedFromCache(cache, cacheKey, page, fetch);
+        return cached != null ? cached : requestRepos(cache, cacheKey, page, fetch);
+    }
+
+    // With stale-while-revalidate on, cached repos are answered right away and refreshed in the background when expired.
+    private GithubReposReplyDto servedFromCache(ReplyCache<GithubReposReplyDto> cache, String cacheKey, int page, ReposFetch fetch) {
+        val cached = cache.get(cacheKey);
+        val served = cached != null
+                ? cacheService.serveWhileRevalidating("repos:" + cacheKey, cached.getMetaData(), () -> requestRepos(cache, cacheKey, page, fetch))
+                : null;
+        if (served == null) {
+            return null;
+        }
+
+        if (served.isCacheExpired()) {
+            staleServedCounter.increment();
+        }
+        val reposDto = new GithubReposReplyDto();
+        reposDto.setRepos(cached.getRepos());
+        reposDto.setLastPage(cached.getLastPage());
+        reposDto.setMetaData(served);
+        return reposDto;
+    }
+
+    // repos we already hold are only refreshed while there is spare rate limit budget.
+    private GithubReposReplyDto requestRepos(ReplyCache<GithubReposReplyDto> cache, String cacheKey, int page, ReposFetch fetch) {
+        return requestRepos(cache, cacheKey, page, fetch, cache.get(cacheKey) != null
+                ? GithubRateLimiter.Priority.REFRESH
+                : GithubRateLimiter.Priority.MISS);
+    }
+
+    // The request is conditional on the cached ETag, a 304 is served from the cache without parsing a body.
+    // If there is an exception for rate limits thrown, github times out, or the budget is too low to call github, we fallback to the cache.
+    private GithubReposReplyDto requestRepos(ReplyCache<GithubReposReplyDto> cache, String cacheKey, int page, ReposFetch fetch,
+                                             GithubRateLimiter.Priority priority) {
         val reposDto = new GithubReposReplyDto();
         val metaData = new MetaData();
         reposDto.setMetaData(metaData);
+        val cached = cache.get(cacheKey);
+        val etag = cached != null ? cached.getMetaData().getEtag() : null;
 
         try {
-            getRepoMono(username)
-                    .onErrorResume(RateLimitException.class,
-                            ex -> Mono.just(handleRateLimit(username, reposDto, metaData)))
-                    .doOnSuccess(repos -> {
-                        String data = null;
-                        try {
-                            data = objectMapper.writeValueAsString(repos);
-                        } catch (JsonProcessingException e) {
-                            throw new RuntimeException(e);
+            requestCoalescer.coalesce("repos", cacheKey, () -> fetch.apply(etag, priority))
+                    .doOnSuccess(responses -> {
+                        val first = responses.getFirst();
+                        if (first.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                            handleNotModified(cache, cacheKey, cached, reposDto, metaData);
+                            return;
                         }
-                        val checksum = Checksum.getCRC32Checksum(data.getBytes());
-                        reposDto.setRepos(repos);
+
+                        // hash the raw pages once and deserialize from the same bytes.
+                        val checksum = checksumTimer.record(() -> Checksum.getCRC32CChecksum(responses.stream()
+                                .map(response -> ByteBuffer.wrap(response.getBody()))
+                                .toList()));
+                        reposDto.setRepos(responses.stream()
+                                .map(response -> deserializeTimer.record(() -> readRepos(response.getBody())))
+                                .flatMap(Arrays::stream)
+                                .toArray(GithubRepoDto[]::new));
+                        reposDto.setLastPage(lastPage(first, page));
+                        // a single ETag can't revalidate several pages.
+                        metaData.setEtag(responses.size() == 1 ? first.getHeaders().getETag() : null);
+
+                        // read again, a coalesced request may already have cached this checksum.
+                        val previous = cache.get(cacheKey);
 
                         cacheService.getFromCache(
-                                username,
-                                reposCache,
+                                cacheKey,
+                                cache,
+                                GithubReposReplyDto::getMetaData,
                                 reposDto,
                                 checksum,
                                 metaData
@@ -81,11 +217,23 @@ public class GithubReposConsumer {
 
                         metaData.setCacheData(false);
 
-                    }).block();
+                        // only a new checksum is news to the other instances, pages aren't shared with them.
+                        if (cache == reposCache && (previous == null || previous.getMetaData().getChecksum() != checksum)) {
+                            cacheBroadcaster.publish("repos", cacheKey, reposDto, metaData);
+                        }
+
+                    })
+                    .onErrorResume(RateLimitException.class, ex -> {
+                        handleUnavailable(cache, cacheKey, reposDto, metaData, ex);
+                        return Mono.empty();
+                    })
+                    // github didn't answer within the hedger's timeout, which is no reason to drop a cached reply either.
+                    .onErrorResume(TimeoutException.class, ex -> {
+                        handleUnavailable(cache, cacheKey, reposDto, metaData, ex);
+                        return Mono.empty();
+                    })
+                    .block();
 
-            return reposDto;
-        } catch (RateLimitException e) {
-            handleRateLimit(username, reposDto, metaData);
             return reposDto;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -94,10 +242,33 @@ public class GithubReposConsumer {
         }
     }
 
-    // The web client for making the http request
-    private Mono<GithubRepoDto[]> getRepoMono(String username) throws RateLimitException {
-        return webClient.get()
-                .uri("/users/{username}/repos", username)
+    // Fetches the first page, then the remaining pages with bounded concurrency, and keeps them in order.
+    // Every page is charged to the rate limit budget, a page it can't pay for falls back to the cache.
+    private Mono<List<ResponseEntity<byte[]>>> getRepoMono(String username, String etag, GithubRateLimiter.Priority priority) {
+        return getRepoPageMono(username, 1, etag, priority)
+                .flatMap(first -> {
+                    val lastPage = lastPage(first, 1);
+                    if (first.getStatusCode() == HttpStatus.NOT_MODIFIED || lastPage <= 1) {
+                        return Mono.just(List.of(first));
+                    }
+
+                    return Flux.concat(
+                                    Mono.just(first),
+                                    Flux.range(2, lastPage - 1)
+                                            .flatMapSequential(page -> getRepoPageMono(username, page, null, priority), pageConcurrency))
+                            .collectList();
+                });
+    }
+
+    // The web client for making the http request, slow calls are timed out, or hedged, by the hedger.
+    private Mono<ResponseEntity<byte[]>> getRepoPageMono(String username, int page, String etag, GithubRateLimiter.Priority priority) {
+        return rateLimiter.charge(priority, () -> hedger.call("repos", () -> webClient.get()
+                .uri("/users/{username}/repos?per_page={perPage}&page={page}", username, perPage, page)
+                .headers(headers -> {
+                    if (etag != null) {
+                        headers.setIfNoneMatch(etag);
+                    }
+                })
                 .retrieve()
                 .onStatus(status ->
                                 status == HttpStatus.FORBIDDEN
@@ -106,19 +277,59 @@ public class GithubReposConsumer {
                             logger.warn("hit rate limit");
                             return Mono.error(new RateLimitException());
                         })
-                .bodyToMono(GithubRepoDto[].class);
+                .toEntity(byte[].class)));
+    }
+
+    private GithubRepoDto[] readRepos(byte[] body) {
+        try {
+            return lean ? LeanGithubParser.readRepos(body) : reposReader.readValue(body);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int lastPage(ResponseEntity<byte[]> response, int page) {
+        return LinkHeader.lastPage(response.getHeaders().getFirst(HttpHeaders.LINK), page);
+    }
+
+    // Github confirmed the cached repos are still current, so reply with the cache and restart its expiration and fresh window.
+    private void handleNotModified(ReplyCache<GithubReposReplyDto> cache, String cacheKey, GithubReposReplyDto cached,
+                                   GithubReposReplyDto reposDto, MetaData metaData) {
+        // a coalesced request may have started before the entry was cached.
+        val current = cached != null ? cached : cache.get(cacheKey);
+        if (current == null) {
+            logger.error("Not modified but no cache was found for {}", cacheKey);
+            metaData.setError(true);
+            return;
+        }
+        reposDto.setRepos(current.getRepos());
+        reposDto.setLastPage(current.getLastPage());
+        metaData.setChecksum(current.getMetaData().getChecksum());
+        metaData.setTimestamp(Instant.now());
+        metaData.setEtag(current.getMetaData().getEtag());
+        metaData.setCacheData(false);
+        cache.put(cacheKey, reposDto);
     }
 
-    // Sets the meta data and grabs cache data as backup if exists.
-    private GithubRepoDto[] handleRateLimit(String username, GithubReposReplyDto reposDto, MetaData metaData) {
-        logger.warn("Hit rate limit for GitHub.");
-        if (reposCache.containsKey(username)) {
-            reposDto.setRepos(reposCache.get(username).getRepos());
-            reposDto.setMetaData(reposCache.get(username).getMetaData());
-            reposDto.getMetaData().setCacheData(true);
+    // Github is rate limited or timed out, sets the meta data and grabs cache data as backup if exists.
+    private GithubRepoDto[] handleUnavailable(ReplyCache<GithubReposReplyDto> cache, String cacheKey, GithubReposReplyDto reposDto,
+                                              MetaData metaData, Throwable cause) {
+        logger.warn("GitHub is unavailable: {}", cause.toString());
+        val cached = cache.get(cacheKey);
+        if (cached != null) {
+            reposDto.setRepos(cached.getRepos());
+            reposDto.setLastPage(cached.getLastPage());
+            // the cached meta data is copied, the entry itself is shared with later replies and the other tiers.
+            val cachedMetaData = cached.getMetaData();
+            metaData.setChecksum(cachedMetaData.getChecksum());
+            metaData.setTimestamp(cachedMetaData.getTimestamp());
+            metaData.setEtag(cachedMetaData.getEtag());
+            metaData.setCacheData(true);
+            metaData.setCacheExpired(cacheService.isExpired(cachedMetaData));
+            staleServedCounter.increment();
             return reposDto.getRepos();
         } else {
-            logger.error("No cache was found.", new RateLimitException());
+            logger.error("No cache was found.", cause);
             metaData.setError(true);
             return null;
         }
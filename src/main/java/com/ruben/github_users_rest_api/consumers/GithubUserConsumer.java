@@ -1,27 +1,40 @@
 package com.ruben.github_users_rest_api.consumers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.ruben.github_users_rest_api.AppConfiguration;
-import com.ruben.github_users_rest_api.dto.GithubRepoDto;
 import com.ruben.github_users_rest_api.dto.GithubUserDto;
 import com.ruben.github_users_rest_api.exceptions.RateLimitException;
 import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
 import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.services.CacheBroadcaster;
 import com.ruben.github_users_rest_api.services.CacheService;
+import com.ruben.github_users_rest_api.services.GithubRateLimiter;
+import com.ruben.github_users_rest_api.services.GithubRequestHedger;
+import com.ruben.github_users_rest_api.services.HotKeyRefresher;
+import com.ruben.github_users_rest_api.services.ReplyCache;
+import com.ruben.github_users_rest_api.services.RequestCoalescer;
 import com.ruben.github_users_rest_api.utilities.Checksum;
+import com.ruben.github_users_rest_api.utilities.LeanGithubParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.val;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This consumer handles the webclient call to github. If it has a rate limit status code returned,
@@ -33,57 +46,141 @@ public class GithubUserConsumer {
     private final Logger logger = LoggerFactory.getLogger(GithubUserConsumer.class);
 
     private final WebClient webClient;
-    private final ObjectMapper objectMapper;
+    private final ObjectReader userReader;
+    // only the fields the api serves are parsed.
+    private final boolean lean;
 
-    private final HashMap<String, GithubUserReplyDto> userCache;
+    private final ReplyCache<GithubUserReplyDto> userCache;
     private final CacheService cacheService;
+    private final RequestCoalescer requestCoalescer;
+    private final GithubRateLimiter rateLimiter;
+    private final GithubRequestHedger hedger;
+    private final CacheBroadcaster cacheBroadcaster;
+    private final HotKeyRefresher hotKeyRefresher;
+
+    private final Timer checksumTimer;
+    private final Timer deserializeTimer;
+    private final Counter staleServedCounter;
 
     public GithubUserConsumer(WebClient gitHubWebClient,
                               ObjectMapper objectMapper,
-                              CacheService cacheService) {
-        this.objectMapper = objectMapper;
+                              CacheService cacheService,
+                              RequestCoalescer requestCoalescer,
+                              GithubRateLimiter rateLimiter,
+                              GithubRequestHedger hedger,
+                              CacheBroadcaster cacheBroadcaster,
+                              HotKeyRefresher hotKeyRefresher,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.github.lean:false}") boolean lean) {
+        this.userReader = objectMapper.readerFor(GithubUserDto.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.lean = lean;
 
         this.webClient = gitHubWebClient;
-        this.userCache = new HashMap<>();
+        this.userCache = cacheService.createCache("user", GithubUserReplyDto.class);
         this.cacheService = cacheService;
+        this.requestCoalescer = requestCoalescer;
+        this.rateLimiter = rateLimiter;
+        this.hedger = hedger;
+        this.cacheBroadcaster = cacheBroadcaster;
+        this.hotKeyRefresher = hotKeyRefresher;
+        this.checksumTimer = meterRegistry.timer("github.checksum", "resource", "user");
+        this.deserializeTimer = meterRegistry.timer("github.deserialize", "resource", "user");
+        this.staleServedCounter = meterRegistry.counter("cache.stale.served", "cache", "user");
+        cacheBroadcaster.register("user", userCache, GithubUserReplyDto.class, GithubUserReplyDto::getMetaData);
+        // hot keys are refreshed in the background, even an evicted one doesn't take the budget kept back for misses.
+        hotKeyRefresher.register("user", userCache, GithubUserReplyDto::getMetaData,
+                username -> requestUser(username, GithubRateLimiter.Priority.REFRESH));
     }
 
     // Consumer for get User request
-    // If there is an exception for rate limits thrown, we fallback to the cache via the onErrorResume callback.
-    @RabbitListener(queues = AppConfiguration.GET_USER_QUEUE)
-    @SendTo(AppConfiguration.GET_USER_QUEUE)
+    @RabbitListener(id = "user", queues = AppConfiguration.GET_USER_QUEUE)
     public GithubUserReplyDto getUser(String username) {
+        hotKeyRefresher.record("user", username);
+        val cached = getCachedUser(username);
+        return cached != null ? cached : requestUser(username);
+    }
+
+    // With stale-while-revalidate on, a cached user is answered right away and refreshed in the background when expired.
+    // Returns null when github has to be called.
+    public GithubUserReplyDto getCachedUser(String username) {
+        val cached = userCache.get(username);
+        val served = cached != null
+                ? cacheService.serveWhileRevalidating("user:" + username, cached.getMetaData(), () -> requestUser(username))
+                : null;
+        if (served == null) {
+            return null;
+        }
+
+        if (served.isCacheExpired()) {
+            staleServedCounter.increment();
+        }
+        val userDto = new GithubUserReplyDto();
+        userDto.setReply(cached.getReply());
+        userDto.setMetaData(served);
+        return userDto;
+    }
+
+    // a user we already hold is only refreshed while there is spare rate limit budget.
+    private GithubUserReplyDto requestUser(String username) {
+        return requestUser(username, userCache.get(username) != null
+                ? GithubRateLimiter.Priority.REFRESH
+                : GithubRateLimiter.Priority.MISS);
+    }
+
+    // The request is conditional on the cached ETag, a 304 is served from the cache without parsing a body.
+    // If there is an exception for rate limits thrown, github times out, or the budget is too low to call github, we fallback to the cache via the onErrorResume callback.
+    private GithubUserReplyDto requestUser(String username, GithubRateLimiter.Priority priority) {
         val userDto = new GithubUserReplyDto();
         val metaData = new MetaData();
         userDto.setMetaData(metaData);
+        val cached = userCache.get(username);
+        val etag = cached != null ? cached.getMetaData().getEtag() : null;
         try {
-            getUserMono(username).onErrorResume(RateLimitException.class,
-                            ex -> Mono.just(handleRateLimit(username, userDto, metaData)))
-                    .doOnSuccess(user -> {
-                        String useValue = null;
-                        try {
-                            useValue = objectMapper.writeValueAsString(user);
-                        } catch (JsonProcessingException e) {
-                            throw new RuntimeException(e);
+            requestCoalescer.coalesce("user", username, () -> getUserMono(username, etag, priority))
+                    .doOnSuccess(response -> {
+                        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                            handleNotModified(username, cached, userDto, metaData);
+                            return;
                         }
-                        val checksum = Checksum.getCRC32Checksum(useValue.getBytes());
-                        userDto.setReply(user);
+
+                        // hash the raw body once and deserialize from the same bytes.
+                        val body = response.getBody();
+                        val checksum = checksumTimer.record(() -> Checksum.getCRC32CChecksum(body));
+                        userDto.setReply(deserializeTimer.record(() -> readUser(body)));
+                        metaData.setEtag(response.getHeaders().getETag());
+
+                        // read again, a coalesced request may already have cached this checksum.
+                        val previous = userCache.get(username);
 
                         cacheService.getFromCache(
                                 username,
                                 userCache,
+                                GithubUserReplyDto::getMetaData,
                                 userDto,
                                 checksum,
                                 metaData
                         );
 
                         metaData.setCacheData(false);
-                    }).block();
-            return userDto;
 
-        } catch (RateLimitException e) {
-            handleRateLimit(username, userDto, metaData);
+                        // only a new checksum is news to the other instances.
+                        if (previous == null || previous.getMetaData().getChecksum() != checksum) {
+                            cacheBroadcaster.publish("user", username, userDto, metaData);
+                        }
+                    })
+                    .onErrorResume(RateLimitException.class, ex -> {
+                        handleUnavailable(username, userDto, metaData, ex);
+                        return Mono.empty();
+                    })
+                    // github didn't answer within the hedger's timeout, which is no reason to drop a cached reply either.
+                    .onErrorResume(TimeoutException.class, ex -> {
+                        handleUnavailable(username, userDto, metaData, ex);
+                        return Mono.empty();
+                    })
+                    .block();
             return userDto;
+
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             metaData.setError(true);
@@ -92,9 +189,15 @@ public class GithubUserConsumer {
 
     }
 
-    private Mono<GithubUserDto> getUserMono(String username) throws RateLimitException {
-        return webClient.get()
+    // slow calls are timed out, or hedged, by the hedger. The request is charged to the rate limit budget.
+    private Mono<ResponseEntity<byte[]>> getUserMono(String username, String etag, GithubRateLimiter.Priority priority) {
+        return rateLimiter.charge(priority, () -> hedger.call("user", () -> webClient.get()
                 .uri("/users/{username}", username)
+                .headers(headers -> {
+                    if (etag != null) {
+                        headers.setIfNoneMatch(etag);
+                    }
+                })
                 .retrieve()
                 .onStatus(status ->
                                 status == HttpStatus.FORBIDDEN
@@ -103,19 +206,51 @@ public class GithubUserConsumer {
                             logger.warn("hit rate limit");
                             return Mono.error(new RateLimitException());
                         })
-                .bodyToMono(GithubUserDto.class);
+                .toEntity(byte[].class)));
+    }
+
+    private GithubUserDto readUser(byte[] body) {
+        try {
+            return lean ? LeanGithubParser.readUser(body) : userReader.readValue(body);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Github confirmed the cached user is still current, so reply with the cache and restart its expiration and fresh window.
+    private void handleNotModified(String username, GithubUserReplyDto cached, GithubUserReplyDto userDto, MetaData metaData) {
+        // a coalesced request may have started before the entry was cached.
+        val current = cached != null ? cached : userCache.get(username);
+        if (current == null) {
+            logger.error("Not modified but no cache was found for {}", username);
+            metaData.setError(true);
+            return;
+        }
+        userDto.setReply(current.getReply());
+        metaData.setChecksum(current.getMetaData().getChecksum());
+        metaData.setTimestamp(Instant.now());
+        metaData.setEtag(current.getMetaData().getEtag());
+        metaData.setCacheData(false);
+        userCache.put(username, userDto);
     }
 
-    // Sets the meta data and grabs cache data as backup if exists.
-    private GithubUserDto handleRateLimit(String username, GithubUserReplyDto userDto, MetaData metaData) {
-        logger.warn("Hit rate limit for GitHub.");
-        if (userCache.containsKey(username)) {
-            userDto.setReply(userCache.get(username).getReply());
-            userDto.setMetaData(userCache.get(username).getMetaData());
-            userDto.getMetaData().setCacheData(true);
+    // Github is rate limited or timed out, sets the meta data and grabs cache data as backup if exists.
+    private GithubUserDto handleUnavailable(String username, GithubUserReplyDto userDto, MetaData metaData, Throwable cause) {
+        logger.warn("GitHub is unavailable: {}", cause.toString());
+        val cached = userCache.get(username);
+        if (cached != null) {
+            userDto.setReply(cached.getReply());
+            // the cached meta data is copied, the entry itself is shared with later replies and the other tiers.
+            val cachedMetaData = cached.getMetaData();
+            metaData.setChecksum(cachedMetaData.getChecksum());
+            metaData.setTimestamp(cachedMetaData.getTimestamp());
+            metaData.setEtag(cachedMetaData.getEtag());
+            metaData.setCacheData(true);
+            metaData.setCacheExpired(cacheService.isExpired(cachedMetaData));
+            staleServedCounter.increment();
             return userDto.getReply();
         } else {
-            logger.error("No cache was found.", new RateLimitException());
+            logger.error("No cache was found.", cause);
             metaData.setError(true);
             return null;
         }
@@ -0,0 +1,49 @@
+package com.ruben.github_users_rest_api.consumers;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.services.GithubUserReposService;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+/**
+ * This consumer handles the combined user and repos request.
+ * Both are fetched from github at the same time and returned in a single reply message.
+ */
+@Service
+@Profile("service")
+public class GithubUserReposConsumer {
+    private final Logger logger = LoggerFactory.getLogger(GithubUserReposConsumer.class);
+
+    private final GithubUserReposService userReposService;
+
+    public GithubUserReposConsumer(GithubUserReposService userReposService) {
+        this.userReposService = userReposService;
+    }
+
+    // Consumer for get user-repos request
+    @RabbitListener(id = "user-repos", queues = AppConfiguration.GET_USER_REPOS_QUEUE)
+    public GithubUserReposDto getUserRepos(String username) {
+        try {
+            return userReposService.getUserRepos(username).block();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            val userReposDto = new GithubUserReposDto();
+            val metaData = new MetaData();
+            metaData.setError(true);
+            userReposDto.setUserMetaData(metaData);
+            userReposDto.setRepoMetaData(metaData);
+            return userReposDto;
+        }
+    }
+
+    // The combined reply when both halves are answered from the cache, otherwise null.
+    public GithubUserReposDto getCachedUserRepos(String username) {
+        return userReposService.getCachedUserRepos(username);
+    }
+}
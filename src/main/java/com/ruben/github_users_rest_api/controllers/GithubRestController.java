@@ -1,23 +1,38 @@
 package com.ruben.github_users_rest_api.controllers;
 
+import com.ruben.github_users_rest_api.dto.GithubBatchItemDto;
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
 import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
 import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
 import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.producers.GithubBatchProducer;
 import com.ruben.github_users_rest_api.producers.GithubReposProducer;
 import com.ruben.github_users_rest_api.producers.GithubUserProducer;
-import com.ruben.github_users_rest_api.services.GithubUserReposService;
+import com.ruben.github_users_rest_api.producers.GithubUserReposProducer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
-import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * The rest api controller.
  * Includes standalone endpoints for getting github data
  * and an endpoint that merges the two calls.
+ * The batch endpoints take a list of usernames and stream a reply per username.
+ * Replies for a single username carry a weak ETag built from the data checksum, a client sending it back as If-None-Match
+ * gets a 304 without the body being written.
+ * With lean parsing on, only the user-repos endpoints are served.
  */
 @RestController
 @RequestMapping("/github")
@@ -25,38 +40,122 @@ public class GithubRestController {
 
     private final GithubUserProducer userRequestService;
     private final GithubReposProducer reposRequestService;
-    private final GithubUserReposService userReposService;
+    private final GithubUserReposProducer userReposRequestService;
+    private final GithubBatchProducer batchRequestService;
+    private final Duration maxAge;
+    private final boolean lean;
 
     public GithubRestController(
             GithubUserProducer userRequestService,
             GithubReposProducer reposRequestService,
-            GithubUserReposService userReposService) {
+            GithubUserReposProducer userReposRequestService,
+            GithubBatchProducer batchRequestService,
+            @Value("${app.http.cache.max-age:${app.near-cache.ttl:5s}}") Duration maxAge,
+            @Value("${app.github.lean:false}") boolean lean) {
         this.userRequestService = userRequestService;
         this.reposRequestService = reposRequestService;
-        this.userReposService = userReposService;
+        this.userReposRequestService = userReposRequestService;
+        this.batchRequestService = batchRequestService;
+        this.maxAge = maxAge;
+        this.lean = lean;
     }
 
     @Operation(summary = "Get user info from GitHub.", description = "Returns the user data from GitHub.")
     @ApiResponse(responseCode = "200", description = "User data available.")
+    @ApiResponse(responseCode = "304", description = "User data unchanged since the ETag sent as If-None-Match.")
+    @ApiResponse(responseCode = "404", description = "Turned off while lean parsing is on.")
     @GetMapping("/user/{username}")
-    public Mono<GithubUserReplyDto> getUserRepositories(@PathVariable String username) throws IOException {
-        val reply = this.userRequestService.sendAndReceive(username);
-        return Mono.just(reply);
+    public Mono<ResponseEntity<GithubUserReplyDto>> getUserRepositories(@PathVariable String username) {
+        requireFullParsing();
+        return this.userRequestService.sendAndReceive(username)
+                .map(reply -> conditional(reply, reply.getMetaData()));
     }
 
     @Operation(summary = "Get repositories for this user.", description = "Returns repositories owned by the user.")
     @ApiResponse(responseCode = "200", description = "Successfully found repositories for user.")
+    @ApiResponse(responseCode = "304", description = "Repositories unchanged since the ETag sent as If-None-Match.")
+    @ApiResponse(responseCode = "404", description = "Turned off while lean parsing is on.")
     @GetMapping("/repo/{username}")
-    public Mono<GithubReposReplyDto> getRepoDetails(@PathVariable String username) throws IOException {
-        val reply = this.reposRequestService.sendAndReceive(username);
-        return Mono.just(reply);
+    public Mono<ResponseEntity<GithubReposReplyDto>> getRepoDetails(@PathVariable String username) {
+        requireFullParsing();
+        return this.reposRequestService.sendAndReceive(username)
+                .map(reply -> conditional(reply, reply.getMetaData()));
+    }
+
+    @Operation(summary = "Stream repositories for this user.", description = "Streams repositories owned by the user as newline delimited json, page by page.")
+    @ApiResponse(responseCode = "200", description = "Streaming repositories for user.")
+    @ApiResponse(responseCode = "404", description = "Turned off while lean parsing is on.")
+    @GetMapping(value = "/repo/{username}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<GithubRepoDto> streamRepoDetails(@PathVariable String username) {
+        requireFullParsing();
+        return this.reposRequestService.streamRepos(username);
     }
 
     @Operation(summary = "Get repositories for this user along with the user info.", description = "Returns repositories owned by the user and info about the user.")
     @ApiResponse(responseCode = "200", description = "Successfully found the user and their repositories.")
+    @ApiResponse(responseCode = "304", description = "User and repositories unchanged since the ETag sent as If-None-Match.")
     @GetMapping("/user-repos/{username}")
-    public Mono<GithubUserReposDto> getUserRepoDetails(@PathVariable String username) throws IOException {
-        val reply = this.userReposService.getUserRepos(username);
-        return Mono.just(reply);
+    public Mono<ResponseEntity<GithubUserReposDto>> getUserRepoDetails(@PathVariable String username) {
+        return this.userReposRequestService.sendAndReceive(username)
+                .map(reply -> conditional(reply, reply.getUserMetaData(), reply.getRepoMetaData()));
+    }
+
+    @Operation(summary = "Get user info for many users.", description = "Streams the user data for each username as newline delimited json, cached users first.")
+    @ApiResponse(responseCode = "200", description = "Streaming user data.")
+    @ApiResponse(responseCode = "404", description = "Turned off while lean parsing is on.")
+    @PostMapping(value = "/users", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<GithubBatchItemDto<GithubUserReplyDto>> getUsers(@RequestBody List<String> usernames) {
+        requireFullParsing();
+        return this.batchRequestService.streamUsers(usernames);
+    }
+
+    @Operation(summary = "Get repositories for many users.", description = "Streams the repositories for each username as newline delimited json, cached users first.")
+    @ApiResponse(responseCode = "200", description = "Streaming repositories.")
+    @ApiResponse(responseCode = "404", description = "Turned off while lean parsing is on.")
+    @PostMapping(value = "/repos", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<GithubBatchItemDto<GithubReposReplyDto>> getRepos(@RequestBody List<String> usernames) {
+        requireFullParsing();
+        return this.batchRequestService.streamRepos(usernames);
+    }
+
+    @Operation(summary = "Get user info and repositories for many users.", description = "Streams the user info and repositories for each username as newline delimited json.")
+    @ApiResponse(responseCode = "200", description = "Streaming users and their repositories.")
+    @PostMapping(value = "/user-repos", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<GithubBatchItemDto<GithubUserReposDto>> getUserRepos(@RequestBody List<String> usernames) {
+        return this.batchRequestService.streamUserRepos(usernames);
+    }
+
+    // Lean parsing leaves most github fields unset, the user and repos replies would pass their defaults off as github data.
+    private void requireFullParsing() {
+        if (lean) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "only /github/user-repos is served while app.github.lean is set");
+        }
+    }
+
+    // Spring answers a GET whose If-None-Match matches the ETag with a 304, before the body is serialized.
+    // Fresh data may be cached for the max age, stale data has to be revalidated and errors aren't cached at all.
+    // The ETag is weak, the checksum covers the github data but not the rest of the reply, such as the meta data.
+    private <T> ResponseEntity<T> conditional(T reply, MetaData... metaData) {
+        for (MetaData part : metaData) {
+            if (part == null || part.isError()) {
+                return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(reply);
+            }
+        }
+
+        StringBuilder etag = new StringBuilder("W/\"");
+        boolean expired = false;
+        for (MetaData part : metaData) {
+            if (etag.length() > 3) {
+                etag.append('-');
+            }
+            etag.append(Long.toHexString(part.getChecksum()));
+            expired |= part.isCacheExpired();
+        }
+        etag.append('"');
+
+        return ResponseEntity.ok()
+                .eTag(etag.toString())
+                .cacheControl(expired ? CacheControl.noCache() : CacheControl.maxAge(maxAge))
+                .body(reply);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package com.ruben.github_users_rest_api.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+public class CacheChangeNotice {
+    // cache the key belongs to, user or repos.
+    private String resource;
+    private String key;
+    private long checksum;
+    private Instant timestamp;
+    // instance that published the notice, so it can skip its own.
+    private String origin;
+    // the new cache entry, only sent when full entries are broadcast.
+    private JsonNode entry;
+}
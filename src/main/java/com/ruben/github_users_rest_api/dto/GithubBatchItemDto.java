@@ -0,0 +1,14 @@
+package com.ruben.github_users_rest_api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One line of a streamed batch response, the reply for a single username.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GithubBatchItemDto<T> {
+    private String username;
+    private T reply;
+}
@@ -0,0 +1,21 @@
+package com.ruben.github_users_rest_api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GithubBatchRequestDto {
+    private List<String> usernames;
+
+    // only usernames the service can answer from its cache are replied to, github isn't called.
+    private boolean cachedOnly;
+
+    public GithubBatchRequestDto(List<String> usernames) {
+        this(usernames, false);
+    }
+}
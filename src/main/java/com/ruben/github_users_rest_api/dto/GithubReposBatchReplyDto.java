@@ -0,0 +1,11 @@
+package com.ruben.github_users_rest_api.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+public class GithubReposBatchReplyDto {
+    // replies keyed by username, in the order they were requested.
+    private Map<String, GithubReposReplyDto> replies;
+}
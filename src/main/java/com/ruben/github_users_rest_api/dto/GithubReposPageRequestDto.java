@@ -0,0 +1,13 @@
+package com.ruben.github_users_rest_api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GithubReposPageRequestDto {
+    private String username;
+    private int page;
+}
@@ -6,4 +6,6 @@ import lombok.Data;
 public class GithubReposReplyDto {
     private GithubRepoDto[] repos;
     private MetaData metaData;
+    // number of github pages the user's repos span.
+    private int lastPage;
 }
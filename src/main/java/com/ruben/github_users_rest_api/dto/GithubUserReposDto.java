@@ -8,6 +8,12 @@ import java.util.List;
 
 @Data
 public class GithubUserReposDto {
+    @JsonProperty("user_meta_data")
+    private MetaData userMetaData;
+
+    @JsonProperty("repo_meta_data")
+    private MetaData repoMetaData;
+
     @JsonProperty("user_name")
     private String username;
 
@@ -0,0 +1,22 @@
+package com.ruben.github_users_rest_api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Leaves the github fields that were never set out of the users, repos and owners written with it.
+ * It is only registered on the broker converters in lean mode, where lean parsing skips most fields.
+ * The rest api then only serves user-repos, which doesn't read the fields that were left out.
+ */
+public class LeanGithubModule extends SimpleModule {
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private interface NonDefault {
+    }
+
+    public LeanGithubModule() {
+        super("LeanGithubModule");
+        setMixInAnnotation(GithubUserDto.class, NonDefault.class);
+        setMixInAnnotation(GithubRepoDto.class, NonDefault.class);
+        setMixInAnnotation(Owner.class, NonDefault.class);
+    }
+}
@@ -13,4 +13,6 @@ public class MetaData {
     private boolean cacheExpired;
 
     private long checksum;
+    // github ETag of the cached response, sent back as If-None-Match.
+    private String etag;
 }
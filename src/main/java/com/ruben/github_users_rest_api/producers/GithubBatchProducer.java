@@ -0,0 +1,199 @@
+package com.ruben.github_users_rest_api.producers;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.GithubBatchItemDto;
+import com.ruben.github_users_rest_api.dto.GithubBatchRequestDto;
+import com.ruben.github_users_rest_api.dto.GithubReposBatchReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserBatchReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReposBatchReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.services.NearCache;
+import com.ruben.github_users_rest_api.utilities.Timing;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This producer requests data for many usernames at once.
+ * Usernames already in the near cache are answered first. The rest are split into chunks that are sent as single messages at the same time.
+ * With stale-while-revalidate on, they are also sent to the service once to be answered from its cache.
+ * Each username is streamed back as soon as its first reply arrives, so a cached username never waits on a slow miss.
+ */
+@Service
+@Profile("rest")
+public class GithubBatchProducer {
+    private Logger logger = LoggerFactory.getLogger(GithubBatchProducer.class);
+
+    private final AsyncRabbitTemplate asyncRabbitTemplate;
+    private final MeterRegistry meterRegistry;
+    private final NearCache nearCache;
+    private final int maxUsernames;
+    private final int chunkSize;
+    private final int chunkConcurrency;
+    private final boolean staleWhileRevalidate;
+
+    public GithubBatchProducer(AsyncRabbitTemplate asyncRabbitTemplate,
+                               MeterRegistry meterRegistry,
+                               NearCache nearCache,
+                               @Value("${app.batch.max-usernames:1000}") int maxUsernames,
+                               @Value("${app.batch.chunk-size:25}") int chunkSize,
+                               @Value("${app.batch.chunk-concurrency:4}") int chunkConcurrency,
+                               @Value("${app.cache.stale-while-revalidate:false}") boolean staleWhileRevalidate) {
+        this.asyncRabbitTemplate = asyncRabbitTemplate;
+        this.meterRegistry = meterRegistry;
+        this.nearCache = nearCache;
+        this.maxUsernames = maxUsernames;
+        this.chunkSize = chunkSize;
+        this.chunkConcurrency = chunkConcurrency;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public Flux<GithubBatchItemDto<GithubUserReplyDto>> streamUsers(List<String> usernames) {
+        return stream("user", usernames, AppConfiguration.ROUTING_KEY_USERS_BATCH, true,
+                GithubUserReplyDto::getMetaData,
+                GithubUserBatchReplyDto::getReplies,
+                () -> {
+                    val userDto = new GithubUserReplyDto();
+                    userDto.setMetaData(errorMetaData());
+                    return userDto;
+                });
+    }
+
+    public Flux<GithubBatchItemDto<GithubReposReplyDto>> streamRepos(List<String> usernames) {
+        return stream("repos", usernames, AppConfiguration.ROUTING_KEY_REPOS_BATCH, true,
+                GithubReposReplyDto::getMetaData,
+                GithubReposBatchReplyDto::getReplies,
+                () -> {
+                    val reposDto = new GithubReposReplyDto();
+                    reposDto.setMetaData(errorMetaData());
+                    return reposDto;
+                });
+    }
+
+    // the combined reply isn't near cached, so every username goes to the service.
+    public Flux<GithubBatchItemDto<GithubUserReposDto>> streamUserRepos(List<String> usernames) {
+        return stream("user-repos", usernames, AppConfiguration.ROUTING_KEY_USER_REPOS_BATCH, false,
+                GithubUserReposDto::getUserMetaData,
+                GithubUserReposBatchReplyDto::getReplies,
+                () -> {
+                    val userReposDto = new GithubUserReposDto();
+                    userReposDto.setUserMetaData(errorMetaData());
+                    userReposDto.setRepoMetaData(errorMetaData());
+                    return userReposDto;
+                });
+    }
+
+    private <T, B> Flux<GithubBatchItemDto<T>> stream(String resource,
+                                                     List<String> usernames,
+                                                     String routingKey,
+                                                     boolean nearCached,
+                                                     Function<T, MetaData> metaData,
+                                                     Function<B, Map<String, T>> replies,
+                                                     Supplier<T> errorReply) {
+        if (usernames == null || usernames.isEmpty() || usernames.size() > maxUsernames) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "a batch takes between 1 and " + maxUsernames + " usernames"));
+        }
+
+        return Flux.defer(() -> {
+            val hits = new ArrayList<GithubBatchItemDto<T>>();
+            val misses = new ArrayList<String>();
+            for (String username : usernames.stream().distinct().toList()) {
+                T cached = nearCached ? nearCache.getIfPresent(resource, username, metaData) : null;
+                if (cached != null) {
+                    hits.add(new GithubBatchItemDto<>(username, cached));
+                } else {
+                    misses.add(username);
+                }
+            }
+            if (misses.isEmpty()) {
+                return Flux.fromIterable(hits);
+            }
+
+            // the service answers what it has cached in one message, so those don't wait on a chunk with a slow miss.
+            // Its cache only answers on its own with stale-while-revalidate on, without it the message could never hit.
+            Flux<GithubBatchItemDto<T>> serviceCached = !staleWhileRevalidate ? Flux.empty()
+                    : sendAndReceive(resource + "-batch-cached", routingKey, new GithubBatchRequestDto(misses, true), replies)
+                    .flatMapIterable(cachedReplies -> items(resource, misses, cachedReplies, nearCached, metaData, null));
+            Flux<GithubBatchItemDto<T>> chunks = Flux.fromIterable(misses)
+                    .buffer(chunkSize)
+                    .flatMap(chunk -> sendAndReceive(resource + "-batch", routingKey, new GithubBatchRequestDto(chunk), replies)
+                            .flatMapIterable(chunkReplies -> items(resource, chunk, chunkReplies, nearCached, metaData, errorReply)),
+                            chunkConcurrency);
+
+            // near cache hits go out first, then every username as soon as its first reply arrives.
+            return Flux.concat(
+                    Flux.fromIterable(hits),
+                    Flux.merge(serviceCached, chunks).distinct(GithubBatchItemDto::getUsername));
+        });
+    }
+
+    // One item per username that was replied to. Without a reply a username is answered with the error reply,
+    // or left out when there is none.
+    private <T> List<GithubBatchItemDto<T>> items(String resource,
+                                                 List<String> usernames,
+                                                 Map<String, T> replies,
+                                                 boolean nearCached,
+                                                 Function<T, MetaData> metaData,
+                                                 Supplier<T> errorReply) {
+        val items = new ArrayList<GithubBatchItemDto<T>>();
+        for (String username : usernames) {
+            T reply = replies.get(username);
+            if (reply == null) {
+                if (errorReply != null) {
+                    logger.error("no {} reply received for {}", resource, username);
+                    items.add(new GithubBatchItemDto<>(username, errorReply.get()));
+                }
+                continue;
+            }
+            if (nearCached) {
+                nearCache.put(resource, username, reply, metaData);
+            }
+            items.add(new GithubBatchItemDto<>(username, reply));
+        }
+        return items;
+    }
+
+    // a failed request replies with no entries, so each of its usernames is answered with an error.
+    private <T, B> Mono<Map<String, T>> sendAndReceive(String metricResource,
+                                                      String routingKey,
+                                                      GithubBatchRequestDto request,
+                                                      Function<B, Map<String, T>> replies) {
+        return Timing.time(Mono.fromFuture(() -> asyncRabbitTemplate.<B>convertSendAndReceive(
+                                AppConfiguration.EXCHANGE,
+                                routingKey,
+                                request,
+                                Timing.stampSentAt())),
+                        meterRegistry, "broker.request", "resource", metricResource)
+                .mapNotNull(replies)
+                .onErrorResume(ex -> {
+                    logger.error("failed to get a {} reply for {} usernames", metricResource, request.getUsernames().size(), ex);
+                    return Mono.empty();
+                })
+                .defaultIfEmpty(Map.of());
+    }
+
+    private MetaData errorMetaData() {
+        val metaData = new MetaData();
+        metaData.setError(true);
+        return metaData;
+    }
+}
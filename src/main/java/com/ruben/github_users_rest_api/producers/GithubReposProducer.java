@@ -1,16 +1,26 @@
 package com.ruben.github_users_rest_api.producers;
 
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import com.ruben.github_users_rest_api.dto.GithubReposPageRequestDto;
 import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
 import com.ruben.github_users_rest_api.dto.MetaData;
 import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.services.NearCache;
+import com.ruben.github_users_rest_api.utilities.Timing;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.val;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * As the proile name suggests, this producer creates a request for the consumer
@@ -21,29 +31,73 @@ import java.io.IOException;
 public class GithubReposProducer {
     private Logger logger = LoggerFactory.getLogger(GithubReposProducer.class);
 
-    private final RabbitTemplate rabbitTemplate;
+    private final AsyncRabbitTemplate asyncRabbitTemplate;
+    private final MeterRegistry meterRegistry;
+    private final NearCache nearCache;
+    private final int pageConcurrency;
 
-    public GithubReposProducer(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public GithubReposProducer(AsyncRabbitTemplate asyncRabbitTemplate,
+                               MeterRegistry meterRegistry,
+                               NearCache nearCache,
+                               @Value("${app.github.page-concurrency:4}") int pageConcurrency) {
+        this.asyncRabbitTemplate = asyncRabbitTemplate;
+        this.meterRegistry = meterRegistry;
+        this.nearCache = nearCache;
+        this.pageConcurrency = pageConcurrency;
     }
 
-    // makes the request to the consumer
-    public GithubReposReplyDto sendAndReceive(String username) throws IOException {
-        val response = rabbitTemplate.convertSendAndReceive(
-                AppConfiguration.EXCHANGE,
-                AppConfiguration.ROUTING_KEY_REPOS,
-                username);
-
-        if (response != null) {
-            val body = (GithubReposReplyDto) response;
-            return body;
-        }
-
-        val reposDto = new GithubReposReplyDto();
-        val metaData = new MetaData();
-        reposDto.setMetaData(metaData);
-        logger.error("no repos reply received for {}", username);
-        reposDto.getMetaData().setError(true);
-        return reposDto;
+    // hot usernames are answered from the near cache without a broker round trip.
+    public Mono<GithubReposReplyDto> sendAndReceive(String username) {
+        return nearCache.get("repos", username, GithubReposReplyDto::getMetaData, () -> request(username));
+    }
+
+    // makes the request to the consumer once subscribed, without blocking the calling thread.
+    private Mono<GithubReposReplyDto> request(String username) {
+        return Timing.time(Mono.fromFuture(() -> asyncRabbitTemplate.<GithubReposReplyDto>convertSendAndReceive(
+                                AppConfiguration.EXCHANGE,
+                                AppConfiguration.ROUTING_KEY_REPOS,
+                                username,
+                                Timing.stampSentAt())),
+                        meterRegistry, "broker.request", "resource", "repos")
+                .onErrorResume(ex -> {
+                    logger.error("failed to get repos reply for {}", username, ex);
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    val reposDto = new GithubReposReplyDto();
+                    val metaData = new MetaData();
+                    reposDto.setMetaData(metaData);
+                    logger.error("no repos reply received for {}", username);
+                    reposDto.getMetaData().setError(true);
+                    return reposDto;
+                }));
+    }
+
+    // Streams the repos page by page, only a few pages are requested and held at a time.
+    // A page that can't be fetched ends the stream with an error, so repos are never silently missing.
+    public Flux<GithubRepoDto> streamRepos(String username) {
+        return sendAndReceivePage(username, 1)
+                .flatMapMany(first -> Flux.concat(
+                        Mono.just(first),
+                        Flux.range(2, Math.max(0, first.getLastPage() - 1))
+                                .flatMapSequential(page -> sendAndReceivePage(username, page), pageConcurrency)))
+                .flatMapIterable(reply -> Arrays.asList(reply.getRepos()));
+    }
+
+    // A timed out, failed or error reply is a 502 before the first page, and aborts the stream after it.
+    private Mono<GithubReposReplyDto> sendAndReceivePage(String username, int page) {
+        return Timing.time(Mono.fromFuture(() -> asyncRabbitTemplate.<GithubReposReplyDto>convertSendAndReceive(
+                                AppConfiguration.EXCHANGE,
+                                AppConfiguration.ROUTING_KEY_REPOS_PAGE,
+                                new GithubReposPageRequestDto(username, page),
+                                Timing.stampSentAt())),
+                        meterRegistry, "broker.request", "resource", "repos-page")
+                .filter(reply -> reply.getRepos() != null && (reply.getMetaData() == null || !reply.getMetaData().isError()))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("no repos in the reply")))
+                .onErrorMap(ex -> {
+                    logger.error("failed to get repos page {} for {}", page, username, ex);
+                    return new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                            "failed to get page " + page + " of the repos of " + username, ex);
+                });
     }
 }
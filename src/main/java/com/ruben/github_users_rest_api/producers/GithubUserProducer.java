@@ -3,14 +3,16 @@ package com.ruben.github_users_rest_api.producers;
 import com.ruben.github_users_rest_api.AppConfiguration;
 import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
 import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.services.NearCache;
+import com.ruben.github_users_rest_api.utilities.Timing;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.val;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
-
-import java.io.IOException;
+import reactor.core.publisher.Mono;
 
 /**
  * This User producer creates a request to get User data from github.
@@ -21,29 +23,41 @@ public class GithubUserProducer {
 
     private Logger logger = LoggerFactory.getLogger(GithubUserProducer.class);
 
-    private final RabbitTemplate rabbitTemplate;
-    public GithubUserProducer(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
-    }
-
-    // makes the request to the consumer
-    public GithubUserReplyDto sendAndReceive(String username) throws IOException {
+    private final AsyncRabbitTemplate asyncRabbitTemplate;
+    private final MeterRegistry meterRegistry;
+    private final NearCache nearCache;
 
-        val response = rabbitTemplate.convertSendAndReceive(
-                AppConfiguration.EXCHANGE,
-                AppConfiguration.ROUTING_KEY_USER,
-                username);
+    public GithubUserProducer(AsyncRabbitTemplate asyncRabbitTemplate,
+                              MeterRegistry meterRegistry, NearCache nearCache) {
+        this.asyncRabbitTemplate = asyncRabbitTemplate;
+        this.meterRegistry = meterRegistry;
+        this.nearCache = nearCache;
+    }
 
-        if (response != null) {
-            val body = (GithubUserReplyDto) response;
-            return body;
-        }
+    // hot usernames are answered from the near cache without a broker round trip.
+    public Mono<GithubUserReplyDto> sendAndReceive(String username) {
+        return nearCache.get("user", username, GithubUserReplyDto::getMetaData, () -> request(username));
+    }
 
-        val userDto = new GithubUserReplyDto();
-        val metaData = new MetaData();
-        userDto.setMetaData(metaData);
-        logger.error("no user data reply received for {}", username);
-        userDto.getMetaData().setError(true);
-        return userDto;
+    // makes the request to the consumer once subscribed, without blocking the calling thread.
+    private Mono<GithubUserReplyDto> request(String username) {
+        return Timing.time(Mono.fromFuture(() -> asyncRabbitTemplate.<GithubUserReplyDto>convertSendAndReceive(
+                                AppConfiguration.EXCHANGE,
+                                AppConfiguration.ROUTING_KEY_USER,
+                                username,
+                                Timing.stampSentAt())),
+                        meterRegistry, "broker.request", "resource", "user")
+                .onErrorResume(ex -> {
+                    logger.error("failed to get user data reply for {}", username, ex);
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    val userDto = new GithubUserReplyDto();
+                    val metaData = new MetaData();
+                    userDto.setMetaData(metaData);
+                    logger.error("no user data reply received for {}", username);
+                    userDto.getMetaData().setError(true);
+                    return userDto;
+                }));
     }
 }
@@ -0,0 +1,56 @@
+package com.ruben.github_users_rest_api.producers;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.utilities.Timing;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * This producer creates a single request for a user and their repos,
+ * the consumer fetches both and replies with the combined data.
+ */
+@Service
+@Profile("rest")
+public class GithubUserReposProducer {
+    private Logger logger = LoggerFactory.getLogger(GithubUserReposProducer.class);
+
+    private final AsyncRabbitTemplate asyncRabbitTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public GithubUserReposProducer(AsyncRabbitTemplate asyncRabbitTemplate,
+                                   MeterRegistry meterRegistry) {
+        this.asyncRabbitTemplate = asyncRabbitTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // makes the request to the consumer once subscribed, without blocking the calling thread.
+    public Mono<GithubUserReposDto> sendAndReceive(String username) {
+        return Timing.time(Mono.fromFuture(() -> asyncRabbitTemplate.<GithubUserReposDto>convertSendAndReceive(
+                                AppConfiguration.EXCHANGE,
+                                AppConfiguration.ROUTING_KEY_USER_REPOS,
+                                username,
+                                Timing.stampSentAt())),
+                        meterRegistry, "broker.request", "resource", "user-repos")
+                .onErrorResume(ex -> {
+                    logger.error("failed to get user repos reply for {}", username, ex);
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    val userReposDto = new GithubUserReposDto();
+                    val metaData = new MetaData();
+                    metaData.setError(true);
+                    userReposDto.setUserMetaData(metaData);
+                    userReposDto.setRepoMetaData(metaData);
+                    logger.error("no user repos reply received for {}", username);
+                    return userReposDto;
+                }));
+    }
+}
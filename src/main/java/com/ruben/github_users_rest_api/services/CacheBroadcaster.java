@@ -0,0 +1,123 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.CacheChangeNotice;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * This service keeps the caches of every service instance in step.
+ * When a consumer sees a new checksum for a key it publishes a change notice on the cache fanout exchange,
+ * every other instance receives it on its own queue and invalidates its older entry,
+ * or stores the new entry when full entries are broadcast, so a user fetched on one node is a hit on all of them.
+ */
+@Service
+@Profile("service")
+public class CacheBroadcaster {
+    private final Logger logger = LoggerFactory.getLogger(CacheBroadcaster.class);
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Registration<?>> registrations = new ConcurrentHashMap<>();
+
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean fullEntry;
+
+    public CacheBroadcaster(RabbitTemplate rabbitTemplate,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.cache.broadcast.full-entry:false}") boolean fullEntry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.fullEntry = fullEntry;
+    }
+
+    // Registers a local cache to be kept in step with the other instances.
+    public <T> void register(String resource, ReplyCache<T> cache, Class<T> type, Function<T, MetaData> metaData) {
+        registrations.put(resource, new Registration<>(cache, type, metaData));
+    }
+
+    // Tells the other instances the entry for the key has changed.
+    public <T> void publish(String resource, String key, T entry, MetaData metaData) {
+        val notice = new CacheChangeNotice();
+        notice.setResource(resource);
+        notice.setKey(key);
+        notice.setChecksum(metaData.getChecksum());
+        notice.setTimestamp(metaData.getTimestamp());
+        notice.setOrigin(instanceId);
+        if (fullEntry) {
+            notice.setEntry(objectMapper.valueToTree(entry));
+        }
+
+        try {
+            rabbitTemplate.convertAndSend(AppConfiguration.CACHE_EXCHANGE, "", notice);
+            meterRegistry.counter("cache.broadcast.published", "resource", resource).increment();
+        } catch (Exception e) {
+            // peers just keep their entry until it expires.
+            logger.warn("Failed to publish cache change for {} {}", resource, key, e);
+        }
+    }
+
+    @RabbitListener(id = "cache-change", queues = "#{cacheChangeQueue.name}")
+    public void onCacheChange(CacheChangeNotice notice) {
+        if (instanceId.equals(notice.getOrigin())) {
+            return;
+        }
+
+        val registration = registrations.get(notice.getResource());
+        if (registration != null) {
+            registration.apply(notice);
+        }
+    }
+
+    private final class Registration<T> {
+        private final ReplyCache<T> cache;
+        private final Class<T> type;
+        private final Function<T, MetaData> metaData;
+
+        Registration(ReplyCache<T> cache, Class<T> type, Function<T, MetaData> metaData) {
+            this.cache = cache;
+            this.type = type;
+            this.metaData = metaData;
+        }
+
+        // Entries that are already current, or newer than the notice, are left alone.
+        void apply(CacheChangeNotice notice) {
+            T local = cache.get(notice.getKey());
+            if (local != null) {
+                MetaData localMetaData = metaData.apply(local);
+                if (localMetaData.getChecksum() == notice.getChecksum()) {
+                    return;
+                }
+                if (localMetaData.getTimestamp() != null && notice.getTimestamp() != null
+                        && localMetaData.getTimestamp().isAfter(notice.getTimestamp())) {
+                    return;
+                }
+            }
+
+            if (notice.getEntry() != null) {
+                cache.put(notice.getKey(), objectMapper.convertValue(notice.getEntry(), type));
+                meterRegistry.counter("cache.broadcast.received", "resource", notice.getResource(), "action", "fill").increment();
+            } else if (local != null) {
+                cache.invalidate(notice.getKey());
+                meterRegistry.counter("cache.broadcast.received", "resource", notice.getResource(), "action", "invalidate").increment();
+            }
+        }
+    }
+}
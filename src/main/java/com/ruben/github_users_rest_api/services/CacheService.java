@@ -1,41 +1,204 @@
 package com.ruben.github_users_rest_api.services;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.ruben.github_users_rest_api.dto.MetaData;
 import com.ruben.github_users_rest_api.utilities.TimestampCheck;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 /**
- * This service manages the caching data stored in memory using hashmaps.
+ * This service manages the caching data stored in memory using bounded concurrent caches.
  * A checksum is provided from the response data to validate if the data cache has changed.
  * Normally we won't use the cache unless github has rate limited us.
+ * With stale-while-revalidate on, cached entries are served right away instead, and refreshed in the background once
+ * they are older than the fresh window.
+ * Named caches can be backed by a disk cache, so the fallback is still there after a restart.
  */
 @Service
-public class CacheService {
-    private final int cacheExpirationInMinutes; // not currently used but could be useful.
+public class CacheService implements DisposableBean {
+    private static final int DISK_ENTRIES_PER_CACHE_ENTRY = 4;
+
+    private final Logger logger = LoggerFactory.getLogger(CacheService.class);
+
+    private final int cacheExpirationInMinutes;
     private final int maxCacheSize;
+    private final boolean diskEnabled;
+    private final String diskDirectory;
+    private final Duration diskTimeToLive;
+    private final DataSize diskMaxSize;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean staleWhileRevalidate;
+    private final Duration freshWindow;
+    private final List<DiskCache<?>> diskCaches = new CopyOnWriteArrayList<>();
+    // keys with a background refresh running, so a stale entry is only refreshed once at a time.
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    public CacheService(int cacheTimeout, int maxCacheSize) {
+        this(cacheTimeout, maxCacheSize, false, null, Duration.ZERO, DataSize.ofMegabytes(256), null, null, false, Duration.ofSeconds(30));
+    }
 
-    public CacheService(@Value("${app.cache.timeout}") int cacheTimeout, @Value("${app.cache.maxCache}")int maxCacheSize) {
+    @Autowired
+    public CacheService(@Value("${app.cache.timeout}") int cacheTimeout,
+                        @Value("${app.cache.maxCache}") int maxCacheSize,
+                        @Value("${app.cache.disk.enabled:false}") boolean diskEnabled,
+                        @Value("${app.cache.disk.directory:cache}") String diskDirectory,
+                        @Value("${app.cache.disk.ttl:24h}") Duration diskTimeToLive,
+                        @Value("${app.cache.disk.max-size:256MB}") DataSize diskMaxSize,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.cache.stale-while-revalidate:false}") boolean staleWhileRevalidate,
+                        @Value("${app.cache.fresh-window:30s}") Duration freshWindow) {
+        // with a window as long as the cache timeout, entries are evicted before they are ever served stale.
+        if (staleWhileRevalidate && freshWindow.compareTo(Duration.ofMinutes(cacheTimeout)) >= 0) {
+            throw new IllegalArgumentException("app.cache.fresh-window " + freshWindow
+                    + " has to be shorter than app.cache.timeout of " + cacheTimeout + " minutes");
+        }
+        // records are read through int offsets into the mapped segment.
+        if (diskMaxSize.toBytes() <= 0 || diskMaxSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("app.cache.disk.max-size " + diskMaxSize
+                    + " has to be more than 0 and less than 2GB");
+        }
         this.cacheExpirationInMinutes = cacheTimeout;
         this.maxCacheSize = maxCacheSize;
+        this.diskEnabled = diskEnabled;
+        this.diskDirectory = diskDirectory;
+        this.diskTimeToLive = diskTimeToLive;
+        this.diskMaxSize = diskMaxSize;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.freshWindow = freshWindow;
+    }
+
+    // Creates a cache bounded by the max cache size, entries expire after the cache timeout.
+    public <T> ReplyCache<T> createCache() {
+        return new ReplyCache<>(buildCache(maxCacheSize));
+    }
+
+    // Creates a memory only cache with its own bound, entries expire after the cache timeout.
+    public <T> ReplyCache<T> createCache(int maxSize) {
+        return new ReplyCache<>(buildCache(maxSize));
+    }
+
+    // Creates a named cache, its hits, misses, evictions and size are published as cache metrics.
+    // It is also written to disk when the disk cache is enabled, where entries outlive the memory tier by the disk ttl.
+    public <T> ReplyCache<T> createCache(String name, Class<T> type) {
+        Cache<String, T> cache = buildCache(maxCacheSize);
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        }
+        if (!diskEnabled) {
+            return new ReplyCache<>(cache);
+        }
+
+        try {
+            DiskCache<T> diskCache = new DiskCache<>(
+                    Path.of(diskDirectory, name + ".seg"),
+                    objectMapper.readerFor(type).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES),
+                    objectMapper.writerFor(type),
+                    diskTimeToLive,
+                    diskMaxSize.toBytes(),
+                    // the disk tier outlives the memory one, so it holds a few times as many entries.
+                    DISK_ENTRIES_PER_CACHE_ENTRY * maxCacheSize);
+            diskCaches.add(diskCache);
+            return new ReplyCache<>(cache, diskCache);
+        } catch (IOException e) {
+            logger.error("Failed to open the disk cache {}, falling back to memory only", name, e);
+            return new ReplyCache<>(cache);
+        }
     }
 
-    public <T> T getFromCache(String key, HashMap<String, T> cache, T newValue, long checksum, MetaData metaData) {
-        if(cache.size() > maxCacheSize) {
-            cache.clear();
+    @Override
+    public void destroy() {
+        for (DiskCache<?> diskCache : diskCaches) {
+            try {
+                diskCache.close();
+            } catch (IOException e) {
+                logger.error("Failed to close a disk cache", e);
+            }
+        }
+    }
+
+    private <T> Cache<String, T> buildCache(int maxSize) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(cacheExpirationInMinutes))
+                .recordStats()
+                .build();
+    }
+
+    // How long entries are kept after they were last written.
+    public Duration getTimeToLive() {
+        return Duration.ofMinutes(cacheExpirationInMinutes);
+    }
+
+    // Returns the meta data to serve a cached entry with, or null when github should be called instead.
+    // Past the fresh window the entry is still served, marked as expired, while a single background refresh updates it.
+    public MetaData serveWhileRevalidating(String key, MetaData cached, Runnable refresh) {
+        if (!staleWhileRevalidate || cached == null || cached.isError() || cached.getTimestamp() == null) {
+            return null;
         }
 
+        boolean expired = isExpired(cached);
+        if (expired && refreshing.add(key)) {
+            Mono.fromRunnable(refresh)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .doFinally(signal -> refreshing.remove(key))
+                    .subscribe(null, ex -> logger.error("Failed to refresh {}", key, ex));
+        }
+
+        MetaData served = new MetaData();
+        served.setChecksum(cached.getChecksum());
+        served.setTimestamp(cached.getTimestamp());
+        served.setEtag(cached.getEtag());
+        served.setCacheData(true);
+        served.setCacheExpired(expired);
+        return served;
+    }
+
+    // Whether the entry was last fetched from github before the fresh window.
+    public boolean isExpired(MetaData metaData) {
+        return metaData.getTimestamp() == null
+                || TimestampCheck.HasTimeExpired(metaData.getTimestamp(), Instant.now(), freshWindow);
+    }
+
+    // An unchanged checksum leaves the cached entry as it is, the reply takes its checksum and timestamp.
+    public <T> T getFromCache(String key, ReplyCache<T> cache, Function<T, MetaData> cachedMetaData,
+                              T newValue, long checksum, MetaData metaData) {
         T cached = cache.get(key);
 
         if (cached != null) {
-
-            if (metaData.getChecksum() != checksum) {
+            MetaData current = cachedMetaData.apply(cached);
+            if (current == null || current.getChecksum() != checksum) {
                 metaData.setChecksum(checksum);
                 metaData.setTimestamp(Instant.now());
-                cache.replace(key, newValue);
+                cache.put(key, newValue);
+            } else {
+                metaData.setChecksum(checksum);
+                metaData.setTimestamp(current.getTimestamp());
             }
         } else {
             metaData.setChecksum(checksum);
@@ -45,4 +208,4 @@ public class CacheService {
 
         return cached != null ? cached : newValue;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,357 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * The on disk second level of a ReplyCache, so cached replies survive restarts.
+ * Replies are appended to a memory-mapped segment file, each record holds the key, the write time,
+ * the serialized reply and a CRC32C of the record. A record without a reply invalidates the key.
+ * The index is rebuilt in the background at startup and lookups miss until it is ready.
+ * Writes and compaction run on a single background thread, compaction rewrites the live records
+ * once the dead ones take up more than half of the file, or once the file or its index reach their bound.
+ * Compaction keeps the newest records up to half of either bound, so the file stays well under 2 GiB.
+ */
+class DiskCache<T> implements Closeable {
+    private static final int MIN_COMPACTION_BYTES = 1024 * 1024;
+    // the mapping is grown once this much was written past it, reads in between go through the channel.
+    private static final int REMAP_BYTES = 8 * 1024 * 1024;
+    // length, timestamp, key length, value length and crc of a record without key or value.
+    private static final int MIN_RECORD_BYTES = Integer.BYTES + Long.BYTES + 3 * Integer.BYTES;
+
+    private final Logger logger = LoggerFactory.getLogger(DiskCache.class);
+
+    // position and length of a record in the segment file, header included.
+    private record Slot(long offset, int length) {
+    }
+
+    private final Path path;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final Duration timeToLive;
+    private final long maxBytes;
+    private final int maxEntries;
+
+    private final ExecutorService executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Slot> index = new ConcurrentHashMap<>();
+
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private long size;
+    private long liveBytes;
+    private volatile boolean ready;
+
+    DiskCache(Path path, ObjectReader reader, ObjectWriter writer, Duration timeToLive,
+              long maxBytes, int maxEntries) throws IOException {
+        this.path = path;
+        this.reader = reader;
+        this.writer = writer;
+        this.timeToLive = timeToLive;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+
+        Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.executor = Executors.newSingleThreadExecutor(Thread.ofPlatform()
+                .daemon()
+                .name("disk-cache-" + path.getFileName())
+                .factory());
+        // startup doesn't wait on the segment file, the index loads in the background.
+        this.executor.execute(this::load);
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    boolean containsKey(String key) {
+        return ready && index.containsKey(key);
+    }
+
+    // Lazily reads the reply from the mapped file, expired, corrupt or out of range records are a miss.
+    T get(String key) {
+        if (!ready) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(key);
+            if (slot == null) {
+                return null;
+            }
+
+            ByteBuffer record = read(slot);
+            if (!isValid(record) || isExpired(record)) {
+                return null;
+            }
+
+            int keyLength = record.getInt(Integer.BYTES + Long.BYTES);
+            int valueOffset = Integer.BYTES + Long.BYTES + Integer.BYTES + keyLength + Integer.BYTES;
+            int valueLength = record.getInt(valueOffset - Integer.BYTES);
+            byte[] value = new byte[valueLength];
+            record.get(valueOffset, value);
+            return reader.readValue(value);
+        } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            logger.error("Failed to read {} from {}", key, path, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends the reply in the background, the request path never waits on the disk.
+    void put(String key, T value) {
+        executor.execute(() -> {
+            try {
+                append(key, writer.writeValueAsBytes(value));
+            } catch (IOException e) {
+                logger.error("Failed to write {} to {}", key, path, e);
+            }
+        });
+    }
+
+    void invalidate(String key) {
+        executor.execute(() -> {
+            try {
+                append(key, null);
+            } catch (IOException e) {
+                logger.error("Failed to invalidate {} in {}", key, path, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    // Rebuilds the index from the segment file, a torn or corrupt tail is truncated.
+    // A file past the bound, written before there was one, is started over.
+    private void load() {
+        lock.writeLock().lock();
+        try {
+            long fileSize = channel.size();
+            if (fileSize > maxBytes) {
+                logger.warn("Dropping {}, its {} bytes are over the bound of {}", path, fileSize, maxBytes);
+                channel.truncate(0);
+                fileSize = 0;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            long offset = 0;
+            while (offset + Integer.BYTES <= fileSize) {
+                int length = Integer.BYTES + mapped.getInt((int) offset);
+                if (length < MIN_RECORD_BYTES || offset + length > fileSize) {
+                    break;
+                }
+
+                ByteBuffer record = mapped.slice((int) offset, length);
+                if (!isValid(record)) {
+                    break;
+                }
+                track(readKey(record), record.getInt(valueLengthOffset(record)) >= 0, new Slot(offset, length));
+                offset += length;
+            }
+
+            if (offset < fileSize) {
+                logger.warn("Truncating {} corrupt bytes from {}", fileSize - offset, path);
+                channel.truncate(offset);
+            }
+            size = offset;
+            ready = true;
+            logger.info("Loaded {} cache entries from {}", index.size(), path);
+        } catch (IOException e) {
+            logger.error("Failed to load {}, the disk cache stays disabled", path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(String key, byte[] value) throws IOException {
+        if (!ready) {
+            return;
+        }
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? -1 : value.length;
+        int length = Integer.BYTES + Long.BYTES + Integer.BYTES + keyBytes.length
+                + Integer.BYTES + Math.max(valueLength, 0) + Integer.BYTES;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length - Integer.BYTES)
+                .putLong(System.currentTimeMillis())
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putInt(valueLength);
+        if (value != null) {
+            buffer.put(value);
+        }
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(buffer.array(), Integer.BYTES, length - 2 * Integer.BYTES);
+        buffer.putInt((int) crc32c.getValue());
+        buffer.flip();
+
+        if (size + length > maxBytes || (value != null && index.size() >= maxEntries && !index.containsKey(key))) {
+            compact();
+        }
+
+        lock.writeLock().lock();
+        try {
+            // only a record larger than half the bound still doesn't fit, the older reply is dropped with it.
+            if (size + length > maxBytes) {
+                logger.warn("Not writing {} to {}, its {} bytes don't fit in {}", key, path, length, maxBytes);
+                track(key, false, null);
+                return;
+            }
+
+            long offset = size;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            size += length;
+            track(key, value != null, new Slot(offset, length));
+            if (size - mapped.capacity() > REMAP_BYTES) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (size > MIN_COMPACTION_BYTES && liveBytes < size / 2) {
+            compact();
+        }
+    }
+
+    private void track(String key, boolean live, Slot slot) {
+        Slot previous = live ? index.put(key, slot) : index.remove(key);
+        if (previous != null) {
+            liveBytes -= previous.length();
+        }
+        if (live) {
+            liveBytes += slot.length();
+        }
+    }
+
+    // Copies the newest live, unexpired records to a new segment file and swaps it in.
+    private void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Map.Entry<String, ByteBuffer>> records = new ArrayList<>();
+            for (Map.Entry<String, Slot> entry : index.entrySet()) {
+                ByteBuffer record = read(entry.getValue());
+                if (!isExpired(record)) {
+                    records.add(Map.entry(entry.getKey(), record));
+                }
+            }
+            records.sort(Comparator.comparingLong((Map.Entry<String, ByteBuffer> entry) -> timestamp(entry.getValue())).reversed());
+
+            Path compactPath = path.resolveSibling(path.getFileName() + ".compact");
+            Map<String, Slot> compacted = new HashMap<>();
+            long offset = 0;
+            try (FileChannel out = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, ByteBuffer> entry : records) {
+                    ByteBuffer record = entry.getValue();
+                    int length = record.remaining();
+                    if (compacted.size() >= maxEntries / 2 || offset + length > maxBytes / 2) {
+                        break;
+                    }
+                    while (record.hasRemaining()) {
+                        out.write(record, offset + record.position());
+                    }
+                    compacted.put(entry.getKey(), new Slot(offset, length));
+                    offset += length;
+                }
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, offset);
+
+            logger.info("Compacted {} from {} to {} bytes and {} entries", path, size, offset, compacted.size());
+            index.clear();
+            index.putAll(compacted);
+            size = offset;
+            liveBytes = offset;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Slices the record from the mapping, or reads it from the channel when it was appended after the last remap.
+    private ByteBuffer read(Slot slot) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (slot.offset() + slot.length() <= current.capacity()) {
+            return current.slice((int) slot.offset(), slot.length());
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(slot.length());
+        while (record.hasRemaining()) {
+            if (channel.read(record, slot.offset() + record.position()) < 0) {
+                throw new EOFException("Record at " + slot.offset() + " is past the end of " + path);
+            }
+        }
+        return record.flip();
+    }
+
+    private boolean isValid(ByteBuffer record) {
+        int crcOffset = record.limit() - Integer.BYTES;
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(record.slice(Integer.BYTES, crcOffset - Integer.BYTES));
+        return (int) crc32c.getValue() == record.getInt(crcOffset);
+    }
+
+    private boolean isExpired(ByteBuffer record) {
+        return timestamp(record) + timeToLive.toMillis() < System.currentTimeMillis();
+    }
+
+    private long timestamp(ByteBuffer record) {
+        return record.getLong(Integer.BYTES);
+    }
+
+    private String readKey(ByteBuffer record) {
+        byte[] keyBytes = new byte[record.getInt(Integer.BYTES + Long.BYTES)];
+        record.get(Integer.BYTES + Long.BYTES + Integer.BYTES, keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    private int valueLengthOffset(ByteBuffer record) {
+        return Integer.BYTES + Long.BYTES + Integer.BYTES + record.getInt(Integer.BYTES + Long.BYTES);
+    }
+}
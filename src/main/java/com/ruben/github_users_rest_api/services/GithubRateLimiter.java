@@ -0,0 +1,137 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * This service schedules github requests against the hourly rate limit budget.
+ * Every response updates the budget from the X-RateLimit headers, and a token bucket spreads
+ * the remaining budget until the reset time.
+ * Cache misses are let through while github still has budget, refreshes of data we already hold
+ * have to wait for a token and stop once the budget is down to the reserve, so they get served from the cache instead.
+ * Every github request is charged on its own, a 304 is free on github's side so it is given back.
+ */
+@Service
+public class GithubRateLimiter {
+    private final Logger logger = LoggerFactory.getLogger(GithubRateLimiter.class);
+
+    public enum Priority {
+        MISS,
+        REFRESH
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final int reserve;
+    private final int burst;
+
+    // unknown until the first response comes back.
+    private long remaining = -1;
+    private long resetEpochSeconds;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public GithubRateLimiter(MeterRegistry meterRegistry,
+                             @Value("${app.github.rate-limit.reserve:100}") int reserve,
+                             @Value("${app.github.rate-limit.burst:20}") int burst) {
+        this.meterRegistry = meterRegistry;
+        this.reserve = reserve;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        Gauge.builder("github.ratelimit.remaining", this, GithubRateLimiter::getRemaining)
+                .description("GitHub requests left in the current rate limit window")
+                .register(meterRegistry);
+    }
+
+    // Returns false when the request should be served from the cache instead of calling github.
+    public synchronized boolean tryAcquire(Priority priority) {
+        if (remaining < 0 || Instant.now().getEpochSecond() >= resetEpochSeconds) {
+            // no budget known, or the window has reset since the last response.
+            return true;
+        }
+
+        refill();
+        val allowed = priority == Priority.MISS
+                ? remaining > 0
+                : remaining > reserve && tokens >= 1;
+
+        if (allowed) {
+            remaining--;
+            tokens = Math.max(0, tokens - 1);
+        } else {
+            meterRegistry.counter("github.ratelimit.deferred", "priority", priority.name().toLowerCase()).increment();
+        }
+        return allowed;
+    }
+
+    // Charges the call one request of the budget, or fails it with a RateLimitException so it falls back to the cache.
+    public <T> Mono<ResponseEntity<T>> charge(Priority priority, Supplier<Mono<ResponseEntity<T>>> call) {
+        return Mono.defer(() -> tryAcquire(priority)
+                ? call.get().doOnNext(response -> {
+                    if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                        refund();
+                    }
+                })
+                : Mono.error(new RateLimitException()));
+    }
+
+    // Gives back the token of a request github didn't count, the remaining budget comes from the response headers.
+    private synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    // Whether a refresh would be let through right now, without taking the budget for it.
+    public synchronized boolean hasSpareBudget() {
+        if (remaining < 0 || Instant.now().getEpochSecond() >= resetEpochSeconds) {
+            return true;
+        }
+
+        refill();
+        return remaining > reserve && tokens >= 1;
+    }
+
+    // Reads the budget github reports on every response.
+    public synchronized void update(HttpHeaders headers) {
+        val remainingHeader = headers.getFirst("X-RateLimit-Remaining");
+        val resetHeader = headers.getFirst("X-RateLimit-Reset");
+        if (remainingHeader == null || resetHeader == null) {
+            return;
+        }
+
+        try {
+            refill();
+            remaining = Long.parseLong(remainingHeader);
+            resetEpochSeconds = Long.parseLong(resetHeader);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid rate limit headers {} {}", remainingHeader, resetHeader);
+        }
+    }
+
+    public synchronized long getRemaining() {
+        return remaining;
+    }
+
+    // Spare budget above the reserve, spread over the seconds left until the reset.
+    private void refill() {
+        val nowNanos = System.nanoTime();
+        if (remaining >= 0) {
+            val secondsUntilReset = Math.max(1, resetEpochSeconds - Instant.now().getEpochSecond());
+            val ratePerSecond = (double) Math.max(0, remaining - reserve) / secondsUntilReset;
+            tokens = Math.min(burst, tokens + ratePerSecond * (nowNanos - lastRefillNanos) / 1_000_000_000d);
+        }
+        lastRefillNanos = nowNanos;
+    }
+}
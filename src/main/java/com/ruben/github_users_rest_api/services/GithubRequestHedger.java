@@ -0,0 +1,143 @@
+package com.ruben.github_users_rest_api.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * This service bounds the tail latency of github calls.
+ * The latency of every endpoint is tracked as a timer with rolling p95 and p99 percentiles.
+ * Calls time out at a multiple of the p99, and with hedging on, a second call is sent once the first has taken
+ * longer than the p95. Whichever answers first wins and the other is cancelled.
+ * Hedges are capped at a share of the calls made, and only use budget the rate limiter would give a refresh.
+ */
+@Service
+public class GithubRequestHedger {
+    private final Map<String, Timer> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final MeterRegistry meterRegistry;
+    private final GithubRateLimiter rateLimiter;
+    private final boolean hedgeEnabled;
+    private final double hedgeShare;
+    private final Duration minTimeout;
+    private final Duration maxTimeout;
+    private final double timeoutMultiplier;
+    private final long minSamples;
+
+    public GithubRequestHedger(MeterRegistry meterRegistry,
+                               GithubRateLimiter rateLimiter,
+                               @Value("${app.github.hedge.enabled:false}") boolean hedgeEnabled,
+                               @Value("${app.github.hedge.share:0.05}") double hedgeShare,
+                               @Value("${app.github.timeout.min:1s}") Duration minTimeout,
+                               @Value("${app.github.timeout.max:10s}") Duration maxTimeout,
+                               @Value("${app.github.timeout.p99-multiplier:3}") double timeoutMultiplier,
+                               @Value("${app.github.timeout.min-samples:20}") long minSamples) {
+        this.meterRegistry = meterRegistry;
+        this.rateLimiter = rateLimiter;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeShare = hedgeShare;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minSamples = minSamples;
+    }
+
+    // Runs the call with the endpoint's adaptive timeout, hedged once it is slower than the p95.
+    // An error from the first call is passed on right away, a failed hedge leaves the first call running.
+    public <T> Mono<T> call(String endpoint, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            val latency = latency(endpoint);
+            requests.incrementAndGet();
+            Mono<T> primary = timed(latency, call.get());
+
+            val timeout = timeout(latency);
+            val p95 = percentile(latency, 0.95);
+            if (!hedgeEnabled || p95 == null) {
+                return withTimeout(primary, latency, timeout);
+            }
+
+            Mono<T> hedge = Mono.delay(p95)
+                    .then(Mono.defer(() -> tryHedge(endpoint)
+                            ? timed(latency, call.get())
+                            .doOnNext(value -> meterRegistry.counter("github.hedge", "endpoint", endpoint, "outcome", "won").increment())
+                            : Mono.<T>never()))
+                    .onErrorResume(ex -> Mono.never());
+            return withTimeout(Mono.firstWithSignal(primary, hedge), latency, timeout);
+        });
+    }
+
+    // A timed out call counts as taking the whole timeout, so a slow github raises the percentiles instead of hiding.
+    private <T> Mono<T> withTimeout(Mono<T> call, Timer latency, Duration timeout) {
+        return call.timeout(timeout)
+                .doOnError(TimeoutException.class, ex -> latency.record(timeout));
+    }
+
+    // The p99 times the multiplier, within the min and max timeout. The max is used until there are enough samples.
+    Duration timeout(String endpoint) {
+        return timeout(latency(endpoint));
+    }
+
+    private Duration timeout(Timer latency) {
+        val p99 = percentile(latency, 0.99);
+        if (p99 == null) {
+            return maxTimeout;
+        }
+
+        val timeout = Duration.ofNanos((long) (p99.toNanos() * timeoutMultiplier));
+        return timeout.compareTo(minTimeout) < 0 ? minTimeout : timeout.compareTo(maxTimeout) > 0 ? maxTimeout : timeout;
+    }
+
+    private boolean tryHedge(String endpoint) {
+        val allowed = hedges.get() + 1 <= hedgeShare * requests.get()
+                && rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+        if (allowed) {
+            hedges.incrementAndGet();
+        }
+        meterRegistry.counter("github.hedge", "endpoint", endpoint, "outcome", allowed ? "sent" : "denied").increment();
+        return allowed;
+    }
+
+    // Only answered calls are recorded, a cancelled loser says nothing about github's latency.
+    private <T> Mono<T> timed(Timer latency, Mono<T> call) {
+        return Mono.defer(() -> {
+            val start = System.nanoTime();
+            return call.doOnNext(value -> latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private Duration percentile(Timer latency, double percentile) {
+        if (latency.count() < minSamples) {
+            return null;
+        }
+
+        for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+            // the percentiles roll over, a window without samples reads as zero.
+            if (value.percentile() == percentile && value.value() > 0) {
+                return Duration.ofNanos((long) value.value(TimeUnit.NANOSECONDS));
+            }
+        }
+        return null;
+    }
+
+    private Timer latency(String endpoint) {
+        return latencies.computeIfAbsent(endpoint, key -> Timer.builder("github.latency")
+                .tag("endpoint", key)
+                .publishPercentiles(0.95, 0.99)
+                .distributionStatisticExpiry(Duration.ofMinutes(2))
+                .register(meterRegistry));
+    }
+}
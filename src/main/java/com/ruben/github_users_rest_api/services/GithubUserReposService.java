@@ -1,37 +1,90 @@
 package com.ruben.github_users_rest_api.services;
 
+import com.ruben.github_users_rest_api.consumers.GithubReposConsumer;
+import com.ruben.github_users_rest_api.consumers.GithubUserConsumer;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
 import com.ruben.github_users_rest_api.dto.GithubUserReposDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
 import com.ruben.github_users_rest_api.dto.Repo;
-import com.ruben.github_users_rest_api.producers.GithubReposProducer;
-import com.ruben.github_users_rest_api.producers.GithubUserProducer;
 import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
 
 /***
- * This service combines the producers for Users and Repos. It combines the data and formats it according to specifications.
+ * This service combines the consumers for Users and Repos inside the service tier, so a user-repos request is a single message.
+ * It combines the data and formats it according to specifications.
  */
 @Service
+@Profile("service")
 public class GithubUserReposService {
 
-    private final GithubReposProducer reposProducer;
-    private final GithubUserProducer userProducer;
+    private final Logger logger = LoggerFactory.getLogger(GithubUserReposService.class);
 
-    public GithubUserReposService(GithubReposProducer reposProducer,
-                                  GithubUserProducer userProducer) {
-        this.reposProducer = reposProducer;
-        this.userProducer = userProducer;
+    private final GithubReposConsumer reposConsumer;
+    private final GithubUserConsumer userConsumer;
+    private final Duration branchTimeout;
+
+    public GithubUserReposService(GithubReposConsumer reposConsumer,
+                                  GithubUserConsumer userConsumer,
+                                  @Value("${app.user-repos.timeout:10s}") Duration branchTimeout) {
+        this.reposConsumer = reposConsumer;
+        this.userConsumer = userConsumer;
+        this.branchTimeout = branchTimeout;
+    }
+
+    // Fetches the user and the repos from github at the same time and maps the data according to requirements.
+    // Each side has its own timeout, if one side fails the other is still returned and the error is flagged in its meta data.
+    public Mono<GithubUserReposDto> getUserRepos(String username) {
+        Mono<GithubUserReplyDto> userReply = Mono.fromCallable(() -> this.userConsumer.getUser(username))
+                .subscribeOn(Schedulers.boundedElastic())
+                .timeout(branchTimeout)
+                .onErrorResume(ex -> {
+                    logger.error("failed to get user for {}", username, ex);
+                    val reply = new GithubUserReplyDto();
+                    reply.setMetaData(errorMetaData());
+                    return Mono.just(reply);
+                });
+        Mono<GithubReposReplyDto> reposReply = Mono.fromCallable(() -> this.reposConsumer.getRepos(username))
+                .subscribeOn(Schedulers.boundedElastic())
+                .timeout(branchTimeout)
+                .onErrorResume(ex -> {
+                    logger.error("failed to get repos for {}", username, ex);
+                    val reply = new GithubReposReplyDto();
+                    reply.setMetaData(errorMetaData());
+                    return Mono.just(reply);
+                });
+
+        return Mono.zip(userReply, reposReply)
+                .map(replies -> combine(replies.getT1(), replies.getT2()));
     }
 
-    // Maps the data according to requirements
-    public GithubUserReposDto getUserRepos(String username) throws IOException {
-        val userReply = this.userProducer.sendAndReceive(username);
-        val reposReply = this.reposProducer.sendAndReceive(username);
+    // The combined reply when both the user and the repos are answered from the cache, otherwise null.
+    public GithubUserReposDto getCachedUserRepos(String username) {
+        val userReply = userConsumer.getCachedUser(username);
+        val reposReply = userReply != null ? reposConsumer.getCachedRepos(username) : null;
+        return reposReply != null ? combine(userReply, reposReply) : null;
+    }
+
+    private MetaData errorMetaData() {
+        val metaData = new MetaData();
+        metaData.setError(true);
+        return metaData;
+    }
 
-        // combine users and repos together.
+    // combine users and repos together.
+    GithubUserReposDto combine(GithubUserReplyDto userReply, GithubReposReplyDto reposReply) {
         val response = new GithubUserReposDto();
+        response.setUserMetaData(userReply.getMetaData());
+        response.setRepoMetaData(reposReply.getMetaData());
         if (userReply.getReply() != null) {
             val user = userReply.getReply();
             response.setUsername(user.getLogin());
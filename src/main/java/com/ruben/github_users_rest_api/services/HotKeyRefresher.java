@@ -0,0 +1,156 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * This service keeps the most requested usernames cached, so they are never a cold miss.
+ * Requests are counted per username and the counts halve on every run, so keys that stop being requested go cold.
+ * Every run refreshes the top hot keys whose cache entry is about to expire, as long as the rate limiter has spare budget.
+ * The refreshes run in the background, so the scheduling thread is never held up by github.
+ */
+@Service
+@Profile("service")
+public class HotKeyRefresher {
+    private final Logger logger = LoggerFactory.getLogger(HotKeyRefresher.class);
+
+    // a cache along with how to refresh one of its keys.
+    private record Tracked<T>(ReplyCache<T> cache, Function<T, MetaData> metaData, Consumer<String> refresh,
+                              Map<String, Long> counts) {
+    }
+
+    private final Map<String, Tracked<?>> tracked = new ConcurrentHashMap<>();
+    // keys with a refresh running, so a slow refresh isn't started again by the next run.
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final GithubRateLimiter rateLimiter;
+    private final MeterRegistry meterRegistry;
+    private final Duration timeToLive;
+    private final Duration refreshAhead;
+    private final int top;
+    private final int minHits;
+    private final int maxTracked;
+    private final Scheduler scheduler;
+
+    @Autowired
+    public HotKeyRefresher(CacheService cacheService,
+                           GithubRateLimiter rateLimiter,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.hot-keys.interval:30s}") Duration interval,
+                           @Value("${app.hot-keys.refresh-ahead:30s}") Duration refreshAhead,
+                           @Value("${app.hot-keys.top:20}") int top,
+                           @Value("${app.hot-keys.min-hits:2}") int minHits,
+                           @Value("${app.hot-keys.max-tracked:10000}") int maxTracked) {
+        this(cacheService, rateLimiter, meterRegistry, interval, refreshAhead, top, minHits, maxTracked,
+                Schedulers.boundedElastic());
+    }
+
+    HotKeyRefresher(CacheService cacheService,
+                    GithubRateLimiter rateLimiter,
+                    MeterRegistry meterRegistry,
+                    Duration interval,
+                    Duration refreshAhead,
+                    int top,
+                    int minHits,
+                    int maxTracked,
+                    Scheduler scheduler) {
+        // an entry is only due for refresh-ahead before it expires, a longer interval would skip over that window.
+        if (refreshAhead.compareTo(interval) < 0) {
+            throw new IllegalArgumentException("app.hot-keys.refresh-ahead " + refreshAhead
+                    + " has to be at least app.hot-keys.interval " + interval);
+        }
+        this.rateLimiter = rateLimiter;
+        this.meterRegistry = meterRegistry;
+        this.timeToLive = cacheService.getTimeToLive();
+        this.refreshAhead = refreshAhead;
+        this.top = top;
+        this.minHits = minHits;
+        this.maxTracked = maxTracked;
+        this.scheduler = scheduler;
+    }
+
+    // Tracks the keys of a cache, refresh fetches a key from github and caches it.
+    public <T> void register(String resource, ReplyCache<T> cache, Function<T, MetaData> metaData, Consumer<String> refresh) {
+        tracked.put(resource, new Tracked<>(cache, metaData, refresh, new ConcurrentHashMap<>()));
+    }
+
+    // Counts a request, new keys are ignored once the max tracked keys is reached.
+    public void record(String resource, String key) {
+        val resourceTracked = tracked.get(resource);
+        if (resourceTracked == null) {
+            return;
+        }
+        val counts = resourceTracked.counts();
+        if (counts.size() < maxTracked || counts.containsKey(key)) {
+            counts.merge(key, 1L, Long::sum);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.hot-keys.interval:30s}", initialDelayString = "${app.hot-keys.interval:30s}")
+    public void refreshHotKeys() {
+        tracked.forEach(this::refreshHotKeys);
+    }
+
+    private <T> void refreshHotKeys(String resource, Tracked<T> resourceTracked) {
+        val counts = resourceTracked.counts();
+        List<String> hot = counts.entrySet().stream()
+                .filter(entry -> entry.getValue() >= minHits)
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(top)
+                .map(Map.Entry::getKey)
+                .toList();
+
+        // halve the counts, keys nobody asked for in a while drop out.
+        counts.replaceAll((key, count) -> count / 2);
+        counts.values().removeIf(count -> count == 0);
+
+        for (String key : hot) {
+            if (!isDue(resourceTracked, key)) {
+                continue;
+            }
+            if (!rateLimiter.hasSpareBudget()) {
+                meterRegistry.counter("cache.hot.deferred", "cache", resource).increment();
+                return;
+            }
+
+            val refreshKey = resource + ":" + key;
+            if (refreshing.add(refreshKey)) {
+                Mono.fromRunnable(() -> resourceTracked.refresh().accept(key))
+                        .subscribeOn(scheduler)
+                        .doOnSuccess(ignored -> meterRegistry.counter("cache.hot.refreshed", "cache", resource).increment())
+                        .doFinally(signal -> refreshing.remove(refreshKey))
+                        .subscribe(null, ex -> logger.error("Failed to refresh hot {} {}", resource, key, ex));
+            }
+        }
+    }
+
+    // Due when the entry expires within the refresh ahead time, or is not cached at all.
+    private <T> boolean isDue(Tracked<T> resourceTracked, String key) {
+        T cached = resourceTracked.cache().get(key);
+        if (cached == null) {
+            return true;
+        }
+
+        Instant timestamp = resourceTracked.metaData().apply(cached).getTimestamp();
+        return timestamp == null || timestamp.plus(timeToLive).minus(refreshAhead).isBefore(Instant.now());
+    }
+}
@@ -0,0 +1,189 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This service sizes the listener containers of the request queues to their load.
+ * Every run it samples each queue's depth and how long its messages waited for a consumer.
+ * A backed up queue gets twice the consumers, up to the listener's max concurrency.
+ * An idle queue gives back one consumer per run, down to the listener's concurrency.
+ * The containers of these queues don't scale themselves, so only one thing changes their consumers.
+ */
+@Service
+@Profile("service")
+public class ListenerAutoscaler {
+    private final Logger logger = LoggerFactory.getLogger(ListenerAutoscaler.class);
+
+    private static final Set<String> QUEUES = Set.of(
+            AppConfiguration.GET_USER_QUEUE,
+            AppConfiguration.GET_REPOS_QUEUE,
+            AppConfiguration.GET_USER_REPOS_QUEUE,
+            AppConfiguration.GET_REPOS_PAGE_QUEUE,
+            AppConfiguration.GET_USERS_BATCH_QUEUE,
+            AppConfiguration.GET_REPOS_BATCH_QUEUE,
+            AppConfiguration.GET_USER_REPOS_BATCH_QUEUE);
+
+    record Decision(int concurrency, String action) {
+    }
+
+    // the current size of a queue's container, published as gauges.
+    private static class Scaled {
+        final AtomicInteger concurrency;
+        final AtomicLong depth = new AtomicLong();
+        long waitCount;
+        double waitTotalMillis;
+
+        Scaled(int concurrency) {
+            this.concurrency = new AtomicInteger(concurrency);
+        }
+    }
+
+    private final Map<String, Scaled> scaled = new ConcurrentHashMap<>();
+    private final AmqpAdmin amqpAdmin;
+    private final RabbitListenerEndpointRegistry endpointRegistry;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final boolean enabled;
+    private final int concurrency;
+    private final int maxConcurrency;
+    private final int prefetch;
+    private final Duration targetWait;
+
+    public ListenerAutoscaler(AmqpAdmin amqpAdmin,
+                              RabbitListenerEndpointRegistry endpointRegistry,
+                              MeterRegistry meterRegistry,
+                              Environment environment,
+                              @Value("${app.amqp.autoscale.enabled:true}") boolean enabled,
+                              @Value("${app.amqp.listener.concurrency:10}") int concurrency,
+                              @Value("${app.amqp.listener.max-concurrency:200}") int maxConcurrency,
+                              @Value("${app.amqp.listener.prefetch:1}") int prefetch,
+                              @Value("${app.amqp.autoscale.target-wait:500ms}") Duration targetWait) {
+        this.amqpAdmin = amqpAdmin;
+        this.endpointRegistry = endpointRegistry;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.enabled = enabled;
+        this.concurrency = concurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.prefetch = prefetch;
+        this.targetWait = targetWait;
+    }
+
+    @Scheduled(fixedDelayString = "${app.amqp.autoscale.interval:10s}", initialDelayString = "${app.amqp.autoscale.interval:10s}")
+    public void autoscale() {
+        if (!enabled) {
+            return;
+        }
+
+        for (MessageListenerContainer container : endpointRegistry.getListenerContainers()) {
+            if (container instanceof SimpleMessageListenerContainer simpleContainer && isAutoscaled(simpleContainer)) {
+                try {
+                    autoscale(simpleContainer, simpleContainer.getQueueNames()[0]);
+                } catch (Exception e) {
+                    logger.error("Failed to autoscale the listener of {}", simpleContainer.getQueueNames()[0], e);
+                }
+            }
+        }
+    }
+
+    // Whether the container listens to one of the request queues, the container factory leaves their max concurrency unset.
+    public static boolean isAutoscaled(SimpleMessageListenerContainer container) {
+        return container.getQueueNames().length == 1 && QUEUES.contains(container.getQueueNames()[0]);
+    }
+
+    private void autoscale(SimpleMessageListenerContainer container, String queue) {
+        val queueInfo = amqpAdmin.getQueueInfo(queue);
+        if (queueInfo == null) {
+            return;
+        }
+
+        val listenerId = container.getListenerId();
+        val listenerConcurrency = listenerProperty(listenerId, "concurrency", concurrency);
+        val state = scaled.computeIfAbsent(queue, key -> register(key, new Scaled(listenerConcurrency)));
+        state.depth.set(queueInfo.getMessageCount());
+
+        val decision = decide(state.concurrency.get(), listenerConcurrency,
+                listenerProperty(listenerId, "max-concurrency", maxConcurrency),
+                listenerProperty(listenerId, "prefetch", prefetch),
+                queueInfo.getMessageCount(), meanQueueWait(queue, state));
+        if (decision.action().equals("hold")) {
+            return;
+        }
+
+        container.setConcurrentConsumers(decision.concurrency());
+        state.concurrency.set(decision.concurrency());
+        meterRegistry.counter("listener.autoscale.decisions", "queue", queue, "action", decision.action()).increment();
+        logger.info("{} {} with {} messages waiting, now {} consumers",
+                decision.action(), queue, queueInfo.getMessageCount(), decision.concurrency());
+    }
+
+    // Doubles the consumers while messages back up or wait longer than the target.
+    // Once the queue is idle it gives back one consumer at a time, never below the listener's concurrency.
+    Decision decide(int currentConcurrency, int listenerConcurrency, int maxListenerConcurrency, int listenerPrefetch,
+                    long depth, Duration wait) {
+        val backedUp = depth > (long) currentConcurrency * listenerPrefetch || wait.compareTo(targetWait) > 0;
+        if (backedUp && currentConcurrency < maxListenerConcurrency) {
+            return new Decision(Math.min(maxListenerConcurrency, currentConcurrency * 2), "scale-up");
+        }
+
+        val idle = depth == 0 && wait.compareTo(targetWait.dividedBy(2)) < 0;
+        if (idle && currentConcurrency > listenerConcurrency) {
+            return new Decision(currentConcurrency - 1, "scale-down");
+        }
+        return new Decision(currentConcurrency, "hold");
+    }
+
+    // The mean time messages waited in the queue since the last run.
+    private Duration meanQueueWait(String queue, Scaled state) {
+        Timer timer = meterRegistry.find("broker.queue.wait").tag("queue", queue).timer();
+        if (timer == null) {
+            return Duration.ZERO;
+        }
+
+        val count = timer.count();
+        val totalMillis = timer.totalTime(TimeUnit.MILLISECONDS);
+        val samples = count - state.waitCount;
+        val millis = totalMillis - state.waitTotalMillis;
+        state.waitCount = count;
+        state.waitTotalMillis = totalMillis;
+        return samples > 0 ? Duration.ofMillis((long) (millis / samples)) : Duration.ZERO;
+    }
+
+    // Listener values can be set per listener id, the same way the container factory reads them.
+    private int listenerProperty(String listenerId, String name, int defaultValue) {
+        return environment.getProperty("app.amqp.listener." + listenerId + "." + name, Integer.class, defaultValue);
+    }
+
+    private Scaled register(String queue, Scaled state) {
+        Gauge.builder("listener.autoscale.concurrency", state.concurrency, AtomicInteger::get)
+                .tag("queue", queue)
+                .register(meterRegistry);
+        Gauge.builder("listener.autoscale.depth", state.depth, AtomicLong::get)
+                .tag("queue", queue)
+                .register(meterRegistry);
+        return state;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A small, short lived cache of replies in the rest tier, so hot usernames are served without a broker round trip.
+ * It is keyed by resource and username, and bounded by both entry count and estimated bytes.
+ * The bytes are estimated from the number of repos in a reply, so weighing it never serializes it again.
+ * Concurrent misses for the same key share one request, and error replies are never kept.
+ * With a max staleness set, replies whose data is older than that are requested again,
+ * the age of data the service answered from its own cache is taken from the MetaData timestamp.
+ */
+@Service
+@Profile("rest")
+public class NearCache {
+    // about the size of a user, or a repo, as json.
+    private static final int REPLY_BYTES = 1536;
+    private static final int REPO_BYTES = 1536;
+
+    // a reply along with when it was put in the near cache.
+    private record Entry(Object value, Instant cachedAt, int weight) {
+    }
+
+    private final AsyncCache<String, Entry> cache;
+    private final Duration maxStaleness;
+    private final int minWeight;
+
+    public NearCache(MeterRegistry meterRegistry,
+                     @Value("${app.near-cache.ttl:5s}") Duration timeToLive,
+                     @Value("${app.near-cache.max-entries:1000}") int maxEntries,
+                     @Value("${app.near-cache.max-bytes:16MB}") DataSize maxBytes,
+                     @Value("${app.near-cache.max-staleness:#{null}}") Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+        // every entry weighs at least its share of the bytes, so the byte bound also caps the entry count.
+        this.minWeight = (int) Math.max(1, maxBytes.toBytes() / maxEntries);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes.toBytes())
+                .weigher((String key, Entry entry) -> entry.weight())
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "near");
+    }
+
+    // Serves the reply from the near cache, or loads it once for everyone asking for the same key.
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> get(String resource, String username, Function<T, MetaData> metaData, Supplier<Mono<T>> load) {
+        return Mono.defer(() -> {
+            String key = resource + ":" + username;
+            CompletableFuture<Entry> cached = cache.getIfPresent(key);
+            if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()
+                    && isStale(cached.join(), (Function<Object, MetaData>) metaData)) {
+                cache.asMap().remove(key, cached);
+            }
+
+            CompletableFuture<Entry> entry = cache.get(key, (k, executor) -> load.get()
+                    .map(value -> new Entry(value, Instant.now(), weigh(value)))
+                    .toFuture());
+            entry.whenComplete((loaded, ex) -> {
+                if (ex != null || loaded == null || isError(metaData.apply((T) loaded.value()))) {
+                    cache.asMap().remove(key, entry);
+                }
+            });
+
+            // a caller cancelling must not cancel the request the others are waiting on.
+            return Mono.fromFuture(entry, true).map(loaded -> (T) loaded.value());
+        });
+    }
+
+    // Returns the reply only if it is already cached and fresh, without loading it.
+    @SuppressWarnings("unchecked")
+    public <T> T getIfPresent(String resource, String username, Function<T, MetaData> metaData) {
+        CompletableFuture<Entry> cached = cache.getIfPresent(resource + ":" + username);
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return null;
+        }
+
+        Entry entry = cached.join();
+        return entry == null || isStale(entry, (Function<Object, MetaData>) metaData) ? null : (T) entry.value();
+    }
+
+    // Keeps a reply that was requested some other way, error replies are skipped.
+    public <T> void put(String resource, String username, T value, Function<T, MetaData> metaData) {
+        if (!isError(metaData.apply(value))) {
+            cache.put(resource + ":" + username, CompletableFuture.completedFuture(new Entry(value, Instant.now(), weigh(value))));
+        }
+    }
+
+    private boolean isStale(Entry entry, Function<Object, MetaData> metaData) {
+        if (maxStaleness == null) {
+            return false;
+        }
+
+        MetaData replyMetaData = metaData.apply(entry.value());
+        Instant dataTime = replyMetaData.isCacheData() && replyMetaData.getTimestamp() != null
+                ? replyMetaData.getTimestamp()
+                : entry.cachedAt();
+        return dataTime.plus(maxStaleness).isBefore(Instant.now());
+    }
+
+    private boolean isError(MetaData metaData) {
+        return metaData == null || metaData.isError();
+    }
+
+    int weigh(Object value) {
+        int repos = value instanceof GithubReposReplyDto reposReply && reposReply.getRepos() != null
+                ? reposReply.getRepos().length
+                : 0;
+        return Math.max(minWeight, REPLY_BYTES + repos * REPO_BYTES);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * A bounded, thread safe cache of replies keyed by username.
+ * Reads are lock free, single entries are evicted by frequency and recency (W-TinyLFU)
+ * once the cache is full, and entries expire after the configured cache timeout.
+ * When the disk cache is enabled, misses fall through to the DiskCache, so replies survive a restart.
+ * Instances are created by the CacheService.
+ */
+public class ReplyCache<T> {
+    private final Cache<String, T> cache;
+    private final DiskCache<T> diskCache;
+
+    ReplyCache(Cache<String, T> cache) {
+        this(cache, null);
+    }
+
+    ReplyCache(Cache<String, T> cache, DiskCache<T> diskCache) {
+        this.cache = cache;
+        this.diskCache = diskCache;
+    }
+
+    // a disk hit is promoted back into memory.
+    public T get(String key) {
+        T value = cache.getIfPresent(key);
+        if (value == null && diskCache != null) {
+            value = diskCache.get(key);
+            if (value != null) {
+                cache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public boolean containsKey(String key) {
+        return cache.asMap().containsKey(key) || (diskCache != null && diskCache.containsKey(key));
+    }
+
+    public void put(String key, T value) {
+        cache.put(key, value);
+        if (diskCache != null) {
+            diskCache.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+        if (diskCache != null) {
+            diskCache.invalidate(key);
+        }
+    }
+
+    // true once the disk index has loaded, or when there is no disk cache.
+    public boolean isDiskReady() {
+        return diskCache == null || diskCache.isReady();
+    }
+
+    // runs any pending evictions first so the size reflects the bound.
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+}
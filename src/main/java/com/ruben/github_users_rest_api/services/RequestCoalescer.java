@@ -0,0 +1,61 @@
+package com.ruben.github_users_rest_api.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * This service deduplicates in-flight github fetches per resource type and username.
+ * Concurrent requests for the same key attach to the outstanding fetch and all receive its result,
+ * so a burst of requests for a popular user only costs one github call.
+ */
+@Service
+public class RequestCoalescer {
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public RequestCoalescer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("github.requests.inflight", inFlight, Map::size)
+                .description("GitHub fetches currently in flight")
+                .register(meterRegistry);
+    }
+
+    // The first subscriber for a key runs the fetch, everyone arriving before it completes shares the result.
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(String resource, String key, Supplier<Mono<T>> fetch) {
+        return Mono.defer(() -> {
+            String flightKey = resource + ":" + key;
+            CompletableFuture<T> flight = new CompletableFuture<>();
+            CompletableFuture<?> existing = inFlight.putIfAbsent(flightKey, flight);
+
+            if (existing != null) {
+                meterRegistry.counter("github.requests.coalesced", "resource", resource).increment();
+                // a follower cancelling must not cancel the fetch the others are waiting on.
+                return Mono.fromFuture((CompletableFuture<T>) existing, true);
+            }
+
+            meterRegistry.counter("github.requests.fetched", "resource", resource).increment();
+            // the flight is removed before its result is published, so later requests start a fresh fetch.
+            return fetch.get()
+                    .doOnSuccess(value -> {
+                        inFlight.remove(flightKey, flight);
+                        flight.complete(value);
+                    })
+                    .doOnError(ex -> {
+                        inFlight.remove(flightKey, flight);
+                        flight.completeExceptionally(ex);
+                    })
+                    .doOnCancel(() -> {
+                        inFlight.remove(flightKey, flight);
+                        flight.cancel(false);
+                    });
+        });
+    }
+}
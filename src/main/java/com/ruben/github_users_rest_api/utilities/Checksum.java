@@ -2,7 +2,9 @@ package com.ruben.github_users_rest_api.utilities;
 
 import lombok.val;
 
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
 
 public class Checksum {
     public static long getCRC32Checksum(byte[] bytes) {
@@ -10,4 +12,20 @@ public class Checksum {
         crc32.update(bytes, 0, bytes.length);
         return crc32.getValue();
     }
+
+    // Hashes the raw response bytes, CRC32C is hardware accelerated on most cpus.
+    public static long getCRC32CChecksum(byte[] bytes) {
+        val crc32c = new CRC32C();
+        crc32c.update(bytes, 0, bytes.length);
+        return crc32c.getValue();
+    }
+
+    // Hashes the buffers in order without copying them, the buffer positions are left untouched.
+    public static long getCRC32CChecksum(Iterable<ByteBuffer> buffers) {
+        val crc32c = new CRC32C();
+        for (ByteBuffer buffer : buffers) {
+            crc32c.update(buffer.duplicate());
+        }
+        return crc32c.getValue();
+    }
 }
@@ -0,0 +1,70 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import lombok.val;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This utility parses github responses with a streaming parser, keeping only the fields the user-repos api serves.
+ * Every other field, nested owners included, is skipped without being materialized.
+ */
+public class LeanGithubParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // The user fields of the user-repos response.
+    public static GithubUserDto readUser(byte[] body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            val user = new GithubUserDto();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "login" -> user.setLogin(parser.getValueAsString());
+                    case "name" -> user.setName(parser.getValueAsString());
+                    case "avatar_url" -> user.setAvatarUrl(parser.getValueAsString());
+                    case "location" -> user.setLocation(parser.getValueAsString());
+                    case "url" -> user.setUrl(parser.getValueAsString());
+                    case "created_at" -> user.setCreatedAt(parser.getValueAsString());
+                    default -> parser.skipChildren();
+                }
+            }
+            return user;
+        }
+    }
+
+    // The name and url of each repo.
+    public static GithubRepoDto[] readRepos(byte[] body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+            val repos = new ArrayList<GithubRepoDto>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                val repo = new GithubRepoDto();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    val field = parser.currentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "name" -> repo.setName(parser.getValueAsString());
+                        case "url" -> repo.setUrl(parser.getValueAsString());
+                        default -> parser.skipChildren();
+                    }
+                }
+                repos.add(repo);
+            }
+            return repos.toArray(GithubRepoDto[]::new);
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
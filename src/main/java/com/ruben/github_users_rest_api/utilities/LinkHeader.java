@@ -0,0 +1,22 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import lombok.val;
+
+import java.util.regex.Pattern;
+
+/**
+ * This utility reads the pagination info out of a github Link header.
+ */
+public class LinkHeader {
+    private static final Pattern LAST_PAGE = Pattern.compile("<[^>]*[?&]page=(\\d+)[^>]*>;\\s*rel=\"last\"");
+
+    // github leaves out the last link on the last page, so the current page is returned then.
+    public static int lastPage(String link, int currentPage) {
+        if (link == null) {
+            return currentPage;
+        }
+
+        val matcher = LAST_PAGE.matcher(link);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : currentPage;
+    }
+}
@@ -0,0 +1,63 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.val;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+
+/**
+ * A message converter that writes the broker messages as Smile, jackson's binary encoding of json.
+ * Type headers are the same as the json converter's, so listeners and replies resolve their types the same way.
+ */
+public class SmileMessageConverter extends AbstractMessageConverter {
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private final ObjectMapper objectMapper;
+    private final DefaultJackson2JavaTypeMapper typeMapper;
+
+    // modules are registered after the java time module, e.g. to change what is written.
+    public SmileMessageConverter(Module... modules) {
+        this.objectMapper = new ObjectMapper(new SmileFactory())
+                .registerModule(new JavaTimeModule())
+                .registerModules(modules)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.typeMapper = new DefaultJackson2JavaTypeMapper();
+        this.typeMapper.setTrustedPackages("*");
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(object);
+            messageProperties.setContentType(CONTENT_TYPE);
+            messageProperties.setContentLength(body.length);
+            typeMapper.fromJavaType(objectMapper.constructType(object.getClass()), messageProperties);
+            return new Message(body, messageProperties);
+        } catch (IOException e) {
+            throw new MessageConversionException("failed to write the message as smile", e);
+        }
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        val properties = message.getMessageProperties();
+        if (properties.getContentType() == null || !properties.getContentType().startsWith(CONTENT_TYPE)) {
+            return message.getBody();
+        }
+
+        try {
+            return objectMapper.readValue(message.getBody(), typeMapper.toJavaType(properties));
+        } catch (IOException e) {
+            throw new MessageConversionException("failed to read the smile message", e);
+        }
+    }
+}
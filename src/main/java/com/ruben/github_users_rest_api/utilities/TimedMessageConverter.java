@@ -0,0 +1,43 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SmartMessageConverter;
+
+/**
+ * A message converter that records how long the broker messages take to serialize and deserialize.
+ */
+public class TimedMessageConverter implements SmartMessageConverter {
+    private final MessageConverter delegate;
+    private final Timer serializeTimer;
+    private final Timer deserializeTimer;
+
+    public TimedMessageConverter(MessageConverter delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.serializeTimer = meterRegistry.timer("broker.message.serialize");
+        this.deserializeTimer = meterRegistry.timer("broker.message.deserialize");
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        return serializeTimer.record(() -> delegate.toMessage(object, messageProperties));
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        return deserializeTimer.record(() -> delegate.fromMessage(message));
+    }
+
+    // listeners pass the parameter type as a hint, only smart converters can use it.
+    @Override
+    public Object fromMessage(Message message, Object conversionHint) throws MessageConversionException {
+        if (delegate instanceof SmartMessageConverter smartConverter) {
+            return deserializeTimer.record(() -> smartConverter.fromMessage(message, conversionHint));
+        }
+        return fromMessage(message);
+    }
+}
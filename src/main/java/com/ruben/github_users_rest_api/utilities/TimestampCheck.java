@@ -14,4 +14,11 @@ public class TimestampCheck {
 
         return duration.toMinutes() >= timeLimitMinutes;
     }
+
+    public static boolean HasTimeExpired(Instant lastTimestamp, Instant currentTimestamp, Duration timeLimit) {
+
+        Duration duration = Duration.between(lastTimestamp, currentTimestamp);
+
+        return duration.compareTo(timeLimit) >= 0;
+    }
 }
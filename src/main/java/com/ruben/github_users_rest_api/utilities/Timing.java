@@ -0,0 +1,55 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.val;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This utility times the stages of a request, the broker round trip and the time a message waits in its queue.
+ */
+public class Timing {
+    // epoch millis the producer sent the request at, the AMQP timestamp property only has seconds.
+    public static final String SENT_AT_HEADER = "x-sent-at";
+
+    // Times the mono from subscription until it completes, errors or is cancelled.
+    public static <T> Mono<T> time(Mono<T> mono, MeterRegistry meterRegistry, String name, String... tags) {
+        return Mono.defer(() -> {
+            val sample = Timer.start(meterRegistry);
+            return mono.doFinally(signal -> sample.stop(
+                    meterRegistry.timer(name, Tags.of(tags).and("outcome", outcome(signal)))));
+        });
+    }
+
+    // Stamps the request with the time it was sent.
+    public static MessagePostProcessor stampSentAt() {
+        return message -> {
+            message.getMessageProperties().setHeader(SENT_AT_HEADER, System.currentTimeMillis());
+            return message;
+        };
+    }
+
+    // Records how long the message waited for a consumer, producer and consumer clocks are assumed in sync.
+    public static void recordQueueWait(Message message, MeterRegistry meterRegistry) {
+        val properties = message.getMessageProperties();
+        if (properties.getHeader(SENT_AT_HEADER) instanceof Number sentAt) {
+            val queue = properties.getConsumerQueue() != null ? properties.getConsumerQueue() : "unknown";
+            meterRegistry.timer("broker.queue.wait", "queue", queue)
+                    .record(Math.max(0, System.currentTimeMillis() - sentAt.longValue()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_COMPLETE -> "success";
+            case ON_ERROR -> "error";
+            default -> "cancelled";
+        };
+    }
+}
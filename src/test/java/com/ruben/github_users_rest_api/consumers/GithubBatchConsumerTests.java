@@ -0,0 +1,88 @@
+package com.ruben.github_users_rest_api.consumers;
+
+import com.ruben.github_users_rest_api.dto.GithubBatchRequestDto;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GithubBatchConsumerTests {
+
+    GithubBatchConsumer consumer;
+
+    @Mock
+    GithubUserConsumer userConsumer;
+    @Mock
+    GithubReposConsumer reposConsumer;
+    @Mock
+    GithubUserReposConsumer userReposConsumer;
+
+    @BeforeEach
+    public void setup() {
+        MockitoAnnotations.openMocks(this);
+        consumer = new GithubBatchConsumer(userConsumer, reposConsumer, userReposConsumer, 2);
+    }
+
+    // every username gets its reply, in the requested order
+    @Test
+    public void testRepliesForEveryUsername() {
+        when(userConsumer.getUser(anyString())).thenAnswer(invocation -> reply(invocation.getArgument(0)));
+
+        var usernames = List.of("octocat", "torvalds", "gaearon", "sindresorhus");
+        var response = consumer.getUsers(new GithubBatchRequestDto(usernames));
+
+        assert response.getReplies().keySet().stream().toList().equals(usernames);
+        assert response.getReplies().get("torvalds").getReply().getLogin().equals("torvalds");
+    }
+
+    // no more than the configured number of usernames are fetched at a time
+    @Test
+    public void testFanOutIsBounded() {
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        when(userConsumer.getUser(anyString())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            return reply(invocation.getArgument(0));
+        });
+
+        var response = consumer.getUsers(new GithubBatchRequestDto(List.of("a", "b", "c", "d", "e", "f")));
+
+        assert response.getReplies().size() == 6;
+        assert maxInFlight.get() <= 2;
+    }
+
+    // a cached only batch answers just the cached usernames, without calling github for the others
+    @Test
+    public void testCachedOnlyRepliesWithTheCachedUsernames() {
+        when(userConsumer.getCachedUser(anyString())).thenAnswer(invocation ->
+                invocation.getArgument(0).equals("torvalds") ? reply("torvalds") : null);
+
+        var response = consumer.getUsers(new GithubBatchRequestDto(List.of("octocat", "torvalds", "gaearon"), true));
+
+        assert response.getReplies().keySet().equals(Set.of("torvalds"));
+        verify(userConsumer, never()).getUser(anyString());
+    }
+
+    private GithubUserReplyDto reply(String username) {
+        var user = new GithubUserDto();
+        user.setLogin(username);
+        var reply = new GithubUserReplyDto();
+        reply.setReply(user);
+        reply.setMetaData(new MetaData());
+        return reply;
+    }
+}
@@ -1,18 +1,35 @@
 package com.ruben.github_users_rest_api.consumers;
 
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import com.ruben.github_users_rest_api.dto.GithubReposPageRequestDto;
 import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import com.ruben.github_users_rest_api.services.CacheBroadcaster;
 import com.ruben.github_users_rest_api.services.CacheService;
+import com.ruben.github_users_rest_api.services.GithubRateLimiter;
+import com.ruben.github_users_rest_api.services.GithubRequestHedger;
+import com.ruben.github_users_rest_api.services.HotKeyRefresher;
+import com.ruben.github_users_rest_api.services.RequestCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GithubReposConsumerTests {
@@ -28,11 +45,22 @@ public class GithubReposConsumerTests {
     @Mock
     private WebClient.ResponseSpec responseSpec;
 
+    @Mock
+    private CacheBroadcaster cacheBroadcaster;
+
+    @Mock
+    private HotKeyRefresher hotKeyRefresher;
+
     String username = "octocat";
+    GithubRequestHedger hedger = new GithubRequestHedger(new SimpleMeterRegistry(),
+            new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20),
+            false, 0.05, Duration.ofSeconds(1), Duration.ofSeconds(10), 3, 20);
+    String reposUri = "/users/{username}/repos?per_page={perPage}&page={page}";
     int maxCacheSize = 100;
+    ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
-    public void setup() {
+    public void setup() throws JsonProcessingException {
         MockitoAnnotations.openMocks(this);
 
         var octoRepo = new GithubRepoDto();
@@ -41,14 +69,18 @@ public class GithubReposConsumerTests {
                 octoRepo
         };
         when(webClient.get()).thenReturn(requestHeadersUriSpec);
-        when(requestHeadersUriSpec.uri("/users/{username}/repos", username)).thenReturn(requestHeadersUriSpec);
+        when(requestHeadersUriSpec.uri(reposUri, username, 100, 1)).thenReturn(requestHeadersUriSpec);
+        when(requestHeadersUriSpec.headers(any())).thenReturn(requestHeadersUriSpec);
         when(requestHeadersUriSpec.retrieve()).thenReturn(responseSpec);
         when(responseSpec.onStatus(any(), any())).thenReturn(responseSpec);
-        when(responseSpec.bodyToMono(GithubRepoDto[].class))
-                .thenReturn(Mono.just(repos));
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok(objectMapper.writeValueAsBytes(repos))));
 
         CacheService cacheService = new CacheService(1, maxCacheSize);
-        consumer = new GithubReposConsumer(webClient, new ObjectMapper(), cacheService);
+        consumer = new GithubReposConsumer(webClient, objectMapper, cacheService,
+                new RequestCoalescer(new SimpleMeterRegistry()),
+                new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20), hedger,
+                cacheBroadcaster, hotKeyRefresher, new SimpleMeterRegistry(), 100, 4, 200, false);
     }
 
     // happy path
@@ -69,7 +101,7 @@ public class GithubReposConsumerTests {
         consumer.getRepos(username);
 
         // modfify some response
-        when(responseSpec.bodyToMono(GithubRepoDto[].class))
+        when(responseSpec.toEntity(byte[].class))
                 .thenReturn(Mono.error(new RateLimitException()));
         var response = consumer.getRepos(username);
 
@@ -79,9 +111,23 @@ public class GithubReposConsumerTests {
         assert metaData.isCacheData();
     }
 
+    // a github call the hedger timed out falls back to the cache like a rate limit
+    @Test
+    public void testTimeoutServedFromCache(){
+        consumer.getRepos(username);
+
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.error(new TimeoutException()));
+        var response = consumer.getRepos(username);
+
+        assert response.getRepos().length > 0;
+        assert response.getMetaData().isCacheData();
+        assert !response.getMetaData().isError();
+    }
+
     @Test
     public void testFailedToCacheData(){
-        when(responseSpec.bodyToMono(GithubRepoDto[].class))
+        when(responseSpec.toEntity(byte[].class))
                 .thenReturn(Mono.error(new RateLimitException()));
         var response = consumer.getRepos(username);
 
@@ -90,4 +136,47 @@ public class GithubReposConsumerTests {
         assert metaData != null;
         assert metaData.isError();
     }
+
+    // Follows the Link header and merges every page in order.
+    @Test
+    public void testGettingAllPages() throws JsonProcessingException {
+        var firstRepo = new GithubRepoDto();
+        firstRepo.setName("first repo");
+        var lastRepo = new GithubRepoDto();
+        lastRepo.setName("last repo");
+        var link = "<https://api.github.com/user/1/repos?per_page=100&page=2>; rel=\"next\", "
+                + "<https://api.github.com/user/1/repos?per_page=100&page=2>; rel=\"last\"";
+
+        var pageTwoSpec = mock(WebClient.ResponseSpec.class);
+        var pageTwoUriSpec = mock(WebClient.RequestHeadersUriSpec.class);
+        when(requestHeadersUriSpec.uri(reposUri, username, 100, 2)).thenReturn(pageTwoUriSpec);
+        when(pageTwoUriSpec.headers(any())).thenReturn(pageTwoUriSpec);
+        when(pageTwoUriSpec.retrieve()).thenReturn(pageTwoSpec);
+        when(pageTwoSpec.onStatus(any(), any())).thenReturn(pageTwoSpec);
+        when(pageTwoSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok(objectMapper.writeValueAsBytes(new GithubRepoDto[]{lastRepo}))));
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok().header(HttpHeaders.LINK, link).eTag("\"abc\"")
+                        .body(objectMapper.writeValueAsBytes(new GithubRepoDto[]{firstRepo}))));
+
+        var response = consumer.getRepos(username);
+
+        assert response.getRepos().length == 2;
+        assert response.getRepos()[0].getName().equals("first repo");
+        assert response.getRepos()[1].getName().equals("last repo");
+        assert response.getLastPage() == 2;
+        // a single ETag can't revalidate several pages.
+        assert response.getMetaData().getEtag() == null;
+    }
+
+    // streamed pages stay in their own cache, they aren't broadcast like whole accounts
+    @Test
+    public void testPagesAreNotBroadcast() {
+        var page = consumer.getReposPage(new GithubReposPageRequestDto(username, 1));
+        assert page.getRepos().length == 1;
+        verify(cacheBroadcaster, never()).publish(any(), any(), any(), any());
+
+        consumer.getRepos(username);
+        verify(cacheBroadcaster).publish(eq("repos"), eq(username), any(), any());
+    }
 }
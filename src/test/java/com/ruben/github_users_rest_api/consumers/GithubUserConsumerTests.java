@@ -1,17 +1,38 @@
 package com.ruben.github_users_rest_api.consumers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ruben.github_users_rest_api.dto.GithubUserDto;
 import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import com.ruben.github_users_rest_api.services.CacheBroadcaster;
 import com.ruben.github_users_rest_api.services.CacheService;
+import com.ruben.github_users_rest_api.services.GithubRateLimiter;
+import com.ruben.github_users_rest_api.services.GithubRequestHedger;
+import com.ruben.github_users_rest_api.services.HotKeyRefresher;
+import com.ruben.github_users_rest_api.services.RequestCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GithubUserConsumerTests {
@@ -27,11 +48,21 @@ public class GithubUserConsumerTests {
     @Mock
     private WebClient.ResponseSpec responseSpec;
 
+    @Mock
+    private CacheBroadcaster cacheBroadcaster;
+
+    @Mock
+    private HotKeyRefresher hotKeyRefresher;
+
     String username = "octocat";
+    GithubRequestHedger hedger = new GithubRequestHedger(new SimpleMeterRegistry(),
+            new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20),
+            false, 0.05, Duration.ofSeconds(1), Duration.ofSeconds(10), 3, 20);
     int maxCacheSize = 100;
+    ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
-    public void setup() {
+    public void setup() throws JsonProcessingException {
         MockitoAnnotations.openMocks(this);
 
         var octoUser = new GithubUserDto();
@@ -39,13 +70,17 @@ public class GithubUserConsumerTests {
 
         when(webClient.get()).thenReturn(requestHeadersUriSpec);
         when(requestHeadersUriSpec.uri("/users/{username}", username)).thenReturn(requestHeadersUriSpec);
+        when(requestHeadersUriSpec.headers(any())).thenReturn(requestHeadersUriSpec);
         when(requestHeadersUriSpec.retrieve()).thenReturn(responseSpec);
         when(responseSpec.onStatus(any(), any())).thenReturn(responseSpec);
-        when(responseSpec.bodyToMono(GithubUserDto.class))
-                .thenReturn(Mono.just(octoUser));
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok(objectMapper.writeValueAsBytes(octoUser))));
 
         CacheService cacheService = new CacheService(1, maxCacheSize);
-        consumer = new GithubUserConsumer(webClient, new ObjectMapper(), cacheService);
+        consumer = new GithubUserConsumer(webClient, objectMapper, cacheService,
+                new RequestCoalescer(new SimpleMeterRegistry()),
+                new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20), hedger,
+                cacheBroadcaster, hotKeyRefresher, new SimpleMeterRegistry(), false);
     }
 
     // happy path
@@ -66,7 +101,7 @@ public class GithubUserConsumerTests {
         consumer.getUser(username);
 
         // modfify some response
-        when(responseSpec.bodyToMono(GithubUserDto.class))
+        when(responseSpec.toEntity(byte[].class))
                 .thenReturn(Mono.error(new RateLimitException()));
         var response = consumer.getUser(username);
 
@@ -77,9 +112,58 @@ public class GithubUserConsumerTests {
     }
 
 
+    // A 304 is served from the cache, the ETag is sent back on the next request.
+    @Test
+    public void testNotModifiedServedFromCache() throws JsonProcessingException {
+        var octoUser = new GithubUserDto();
+        octoUser.setName("octocat user");
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok().eTag("\"abc\"").body(objectMapper.writeValueAsBytes(octoUser))));
+        var first = consumer.getUser(username);
+        assert first.getMetaData().getEtag().equals("\"abc\"");
+
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).<byte[]>build()));
+        var response = consumer.getUser(username);
+
+        assert response.getReply() != null;
+        assert response.getReply().getName().equals("octocat user");
+        assert response.getMetaData().getChecksum() == first.getMetaData().getChecksum();
+        assert !response.getMetaData().isError();
+    }
+
+    // a github call the hedger timed out falls back to the cache like a rate limit
+    @Test
+    public void testTimeoutServedFromCache(){
+        consumer.getUser(username);
+
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.error(new TimeoutException()));
+        var response = consumer.getUser(username);
+
+        assert response.getReply() != null;
+        assert response.getMetaData().isCacheData();
+        assert !response.getMetaData().isError();
+    }
+
+    // the fallback reply is flagged as cache data, the cached entry served after it is not
+    @Test
+    public void testFallbackLeavesTheCachedEntryAsItIs(){
+        var first = consumer.getUser(username);
+
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.error(new RateLimitException()));
+        var fallback = consumer.getUser(username);
+
+        assert fallback.getMetaData().isCacheData();
+        assert fallback.getMetaData() != first.getMetaData();
+        assert fallback.getMetaData().getChecksum() == first.getMetaData().getChecksum();
+        assert !first.getMetaData().isCacheData();
+    }
+
     @Test
     public void testFailedToCacheData(){
-        when(responseSpec.bodyToMono(GithubUserDto.class))
+        when(responseSpec.toEntity(byte[].class))
                 .thenReturn(Mono.error(new RateLimitException()));
         var response = consumer.getUser(username);
 
@@ -88,4 +172,55 @@ public class GithubUserConsumerTests {
         assert metaData != null;
         assert metaData.isError();
     }
+
+    // only a new checksum is broadcast to the other instances
+    @Test
+    public void testBroadcastsChangedData(){
+        consumer.getUser(username);
+        consumer.getUser(username);
+
+        verify(cacheBroadcaster, times(1)).publish(eq("user"), eq(username), any(), any());
+    }
+
+    // a hot key refreshed after it was evicted still leaves the reserve to real misses
+    @Test
+    public void testHotKeyRefreshKeepsTheReserve(){
+        var rateLimiter = new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20);
+        var headers = new HttpHeaders();
+        headers.add("X-RateLimit-Remaining", "50");
+        headers.add("X-RateLimit-Reset", String.valueOf(Instant.now().plus(Duration.ofHours(1)).getEpochSecond()));
+        rateLimiter.update(headers);
+        clearInvocations(hotKeyRefresher);
+        var reserveConsumer = new GithubUserConsumer(webClient, objectMapper, new CacheService(1, maxCacheSize),
+                new RequestCoalescer(new SimpleMeterRegistry()), rateLimiter, hedger,
+                cacheBroadcaster, hotKeyRefresher, new SimpleMeterRegistry(), false);
+        ArgumentCaptor<Consumer<String>> refresh = ArgumentCaptor.forClass(Consumer.class);
+        verify(hotKeyRefresher).register(eq("user"), any(), any(), refresh.capture());
+
+        refresh.getValue().accept(username);
+        verify(webClient, never()).get();
+
+        var response = reserveConsumer.getUser(username);
+        assert response.getReply() != null;
+        verify(webClient, times(1)).get();
+    }
+
+    // lean mode only keeps the fields the api serves
+    @Test
+    public void testLeanParsing(){
+        var leanConsumer = new GithubUserConsumer(webClient, objectMapper, new CacheService(1, maxCacheSize),
+                new RequestCoalescer(new SimpleMeterRegistry()),
+                new GithubRateLimiter(new SimpleMeterRegistry(), 100, 20), hedger,
+                cacheBroadcaster, hotKeyRefresher, new SimpleMeterRegistry(), true);
+        var body = "{\"login\":\"octocat\",\"name\":\"octocat user\",\"company\":\"@github\","
+                + "\"plan\":{\"name\":\"pro\",\"space\":976562499},\"location\":\"San Francisco\"}";
+        when(responseSpec.toEntity(byte[].class))
+                .thenReturn(Mono.just(ResponseEntity.ok(body.getBytes())));
+
+        var response = leanConsumer.getUser(username);
+
+        assert response.getReply().getName().equals("octocat user");
+        assert response.getReply().getLocation().equals("San Francisco");
+        assert response.getReply().getCompany() == null;
+    }
 }
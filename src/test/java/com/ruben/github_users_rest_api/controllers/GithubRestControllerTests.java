@@ -0,0 +1,118 @@
+package com.ruben.github_users_rest_api.controllers;
+
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import com.ruben.github_users_rest_api.producers.GithubBatchProducer;
+import com.ruben.github_users_rest_api.producers.GithubReposProducer;
+import com.ruben.github_users_rest_api.producers.GithubUserProducer;
+import com.ruben.github_users_rest_api.producers.GithubUserReposProducer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class GithubRestControllerTests {
+    WebTestClient client;
+    String username = "octocat";
+
+    @Mock
+    private GithubUserProducer userProducer;
+
+    @Mock
+    private GithubReposProducer reposProducer;
+
+    @Mock
+    private GithubUserReposProducer userReposProducer;
+
+    @Mock
+    private GithubBatchProducer batchProducer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        client = WebTestClient.bindToController(new GithubRestController(
+                userProducer, reposProducer, userReposProducer, batchProducer, Duration.ofSeconds(5), false)).build();
+    }
+
+    @Test
+    void testETagFromChecksum() {
+        when(userProducer.sendAndReceive(username)).thenReturn(Mono.just(reply(255, false, false)));
+
+        client.get().uri("/github/user/{username}", username)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "W/\"ff\"")
+                .expectHeader().valueEquals("Cache-Control", "max-age=5")
+                .expectBody().jsonPath("$.reply.name").isEqualTo("octocat user");
+    }
+
+    // a client holding the current ETag gets no body
+    @Test
+    void testNotModified() {
+        when(userProducer.sendAndReceive(username)).thenReturn(Mono.just(reply(255, false, false)));
+
+        client.get().uri("/github/user/{username}", username)
+                .header("If-None-Match", "W/\"ff\"")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_MODIFIED)
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void testStaleDataMustBeRevalidated() {
+        when(userProducer.sendAndReceive(username)).thenReturn(Mono.just(reply(255, true, false)));
+
+        client.get().uri("/github/user/{username}", username)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Cache-Control", "no-cache");
+    }
+
+    @Test
+    void testErrorsAreNotCached() {
+        when(userProducer.sendAndReceive(username)).thenReturn(Mono.just(reply(0, false, true)));
+
+        client.get().uri("/github/user/{username}", username)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("ETag")
+                .expectHeader().valueEquals("Cache-Control", "no-store");
+    }
+
+    // the user reply would show the fields lean parsing skipped as real data
+    @Test
+    void testLeanOnlyServesUserRepos() {
+        var leanClient = WebTestClient.bindToController(new GithubRestController(
+                userProducer, reposProducer, userReposProducer, batchProducer, Duration.ofSeconds(5), true)).build();
+
+        leanClient.get().uri("/github/user/{username}", username)
+                .exchange()
+                .expectStatus().isNotFound();
+        leanClient.get().uri("/github/repo/{username}", username)
+                .exchange()
+                .expectStatus().isNotFound();
+        verifyNoInteractions(userProducer, reposProducer);
+    }
+
+    private GithubUserReplyDto reply(long checksum, boolean expired, boolean error) {
+        var user = new GithubUserDto();
+        user.setName("octocat user");
+        var metaData = new MetaData();
+        metaData.setChecksum(checksum);
+        metaData.setCacheExpired(expired);
+        metaData.setError(error);
+        var reply = new GithubUserReplyDto();
+        reply.setReply(user);
+        reply.setMetaData(metaData);
+        return reply;
+    }
+}
@@ -0,0 +1,163 @@
+package com.ruben.github_users_rest_api.producers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
+import org.testcontainers.containers.RabbitMQContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the request/reply round trip against a real broker, before and after the producers moved to AsyncRabbitTemplate.
+ * Before, every request held a thread in RabbitTemplate.convertSendAndReceive until its reply came back.
+ * Now the requests are in flight together and their replies are matched on direct reply-to by correlation id.
+ * Needs docker and is left out of ./gradlew test, run it with ./gradlew brokerTest and read the percentiles from the log.
+ */
+@Tag("broker")
+@Testcontainers(disabledWithoutDocker = true)
+public class ReplyLatencyTests {
+    private final Logger logger = LoggerFactory.getLogger(ReplyLatencyTests.class);
+
+    private static final String QUEUE = "latency.requests";
+    private static final int WARMUP = 200;
+    private static final int REQUESTS = 2000;
+    // the producer side's in-flight requests, and the service's consumers.
+    private static final int CONCURRENCY = 32;
+    private static final long SERVICE_MILLIS = 5;
+
+    @Container
+    static RabbitMQContainer rabbit = new RabbitMQContainer(DockerImageName.parse("rabbitmq:latest"));
+
+    CachingConnectionFactory connectionFactory;
+    SimpleMessageListenerContainer listener;
+
+    // a service answering every request after the same time, to the reply-to of the request.
+    public static class Echo {
+        public String handleMessage(String username) throws InterruptedException {
+            Thread.sleep(SERVICE_MILLIS);
+            return username;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new CachingConnectionFactory(rabbit.getHost(), rabbit.getAmqpPort());
+        connectionFactory.setUsername(rabbit.getAdminUsername());
+        connectionFactory.setPassword(rabbit.getAdminPassword());
+        new RabbitAdmin(connectionFactory).declareQueue(new Queue(QUEUE, false, false, true));
+
+        listener = new SimpleMessageListenerContainer(connectionFactory);
+        listener.setQueueNames(QUEUE);
+        listener.setConcurrentConsumers(CONCURRENCY);
+        listener.setMessageListener(new MessageListenerAdapter(new Echo()));
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void testReplyLatency() throws Exception {
+        var rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setReplyTimeout(30_000);
+        var asyncRabbitTemplate = new AsyncRabbitTemplate(new RabbitTemplate(connectionFactory));
+        asyncRabbitTemplate.start();
+        try {
+            blocking(rabbitTemplate, WARMUP);
+            async(asyncRabbitTemplate, WARMUP);
+
+            var before = blocking(rabbitTemplate, REQUESTS);
+            var after = async(asyncRabbitTemplate, REQUESTS);
+
+            report("blocking RabbitTemplate", before);
+            report("AsyncRabbitTemplate", after);
+            assert before.replies() == REQUESTS;
+            assert after.replies() == REQUESTS;
+        } finally {
+            asyncRabbitTemplate.stop();
+        }
+    }
+
+    private record Run(long[] nanos, long elapsedNanos, int replies) {
+    }
+
+    // every request blocks one of the threads until its reply arrives.
+    private Run blocking(RabbitTemplate rabbitTemplate, int requests) throws InterruptedException {
+        var nanos = new long[requests];
+        var replies = new AtomicInteger();
+        List<Callable<Object>> calls = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            final int request = i;
+            calls.add(() -> {
+                long start = System.nanoTime();
+                if (rabbitTemplate.convertSendAndReceive("", QUEUE, "octocat") != null) {
+                    replies.incrementAndGet();
+                }
+                nanos[request] = System.nanoTime() - start;
+                return null;
+            });
+        }
+
+        var executor = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        try {
+            executor.invokeAll(calls);
+        } finally {
+            executor.shutdown();
+        }
+        return new Run(nanos, System.nanoTime() - start, replies.get());
+    }
+
+    private Run async(AsyncRabbitTemplate asyncRabbitTemplate, int requests) {
+        var nanos = new long[requests];
+        var replies = new AtomicInteger();
+        long start = System.nanoTime();
+        Flux.range(0, requests)
+                .flatMap(request -> {
+                    long sent = System.nanoTime();
+                    return Mono.fromFuture(() -> asyncRabbitTemplate.<String>convertSendAndReceive("", QUEUE, "octocat"))
+                            .doOnNext(reply -> {
+                                nanos[request] = System.nanoTime() - sent;
+                                replies.incrementAndGet();
+                            });
+                }, CONCURRENCY)
+                .blockLast();
+        return new Run(nanos, System.nanoTime() - start, replies.get());
+    }
+
+    private void report(String name, Run run) {
+        var sorted = run.nanos().clone();
+        Arrays.sort(sorted);
+        logger.info("{}: {} requests, {} in flight, p50 {} ms, p99 {} ms, {} requests/s", name, sorted.length, CONCURRENCY,
+                millis(sorted[sorted.length / 2]), millis(sorted[sorted.length * 99 / 100]),
+                sorted.length * TimeUnit.SECONDS.toNanos(1) / run.elapsedNanos());
+    }
+
+    private String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,115 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ruben.github_users_rest_api.dto.CacheChangeNotice;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.time.Instant;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+public class CacheBroadcasterTests {
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    ReplyCache<GithubUserReplyDto> localCache;
+    ReplyCache<GithubUserReplyDto> peerCache;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        CacheService cacheService = new CacheService(1, 100);
+        localCache = cacheService.createCache();
+        peerCache = cacheService.createCache();
+    }
+
+    @Test
+    void testPeerInvalidatesOlderEntry() {
+        CacheBroadcaster local = broadcaster(false, localCache);
+        CacheBroadcaster peer = broadcaster(false, peerCache);
+        peerCache.put("octocat", reply("old", 1L, Instant.now().minusSeconds(30)));
+
+        GithubUserReplyDto changed = reply("new", 2L, Instant.now());
+        local.publish("user", "octocat", changed, changed.getMetaData());
+        peer.onCacheChange(published());
+
+        assert peerCache.get("octocat") == null;
+    }
+
+    @Test
+    void testPeerFillsFullEntry() {
+        CacheBroadcaster local = broadcaster(true, localCache);
+        CacheBroadcaster peer = broadcaster(true, peerCache);
+
+        GithubUserReplyDto changed = reply("new", 2L, Instant.now());
+        local.publish("user", "octocat", changed, changed.getMetaData());
+        peer.onCacheChange(published());
+
+        GithubUserReplyDto filled = peerCache.get("octocat");
+        assert filled != null;
+        assert filled.getReply().getName().equals("new");
+        assert filled.getMetaData().getChecksum() == 2L;
+    }
+
+    @Test
+    void testNewerLocalEntryIsKept() {
+        CacheBroadcaster local = broadcaster(true, localCache);
+        CacheBroadcaster peer = broadcaster(true, peerCache);
+        peerCache.put("octocat", reply("newer", 3L, Instant.now()));
+
+        GithubUserReplyDto changed = reply("older", 2L, Instant.now().minusSeconds(30));
+        local.publish("user", "octocat", changed, changed.getMetaData());
+        peer.onCacheChange(published());
+
+        assert peerCache.get("octocat").getReply().getName().equals("newer");
+    }
+
+    @Test
+    void testOwnNoticeIsIgnored() {
+        CacheBroadcaster local = broadcaster(false, localCache);
+        localCache.put("octocat", reply("old", 1L, Instant.now().minusSeconds(30)));
+
+        GithubUserReplyDto changed = reply("new", 2L, Instant.now());
+        local.publish("user", "octocat", changed, changed.getMetaData());
+        local.onCacheChange(published());
+
+        assert localCache.get("octocat") != null;
+    }
+
+    private CacheBroadcaster broadcaster(boolean fullEntry, ReplyCache<GithubUserReplyDto> cache) {
+        CacheBroadcaster broadcaster = new CacheBroadcaster(rabbitTemplate, objectMapper, new SimpleMeterRegistry(), fullEntry);
+        broadcaster.register("user", cache, GithubUserReplyDto.class, GithubUserReplyDto::getMetaData);
+        return broadcaster;
+    }
+
+    private CacheChangeNotice published() {
+        ArgumentCaptor<CacheChangeNotice> notice = ArgumentCaptor.forClass(CacheChangeNotice.class);
+        verify(rabbitTemplate).convertAndSend(anyString(), eq(""), notice.capture());
+        return notice.getValue();
+    }
+
+    private GithubUserReplyDto reply(String name, long checksum, Instant timestamp) {
+        GithubUserDto user = new GithubUserDto();
+        user.setName(name);
+        MetaData metaData = new MetaData();
+        metaData.setChecksum(checksum);
+        metaData.setTimestamp(timestamp);
+        GithubUserReplyDto reply = new GithubUserReplyDto();
+        reply.setReply(user);
+        reply.setMetaData(metaData);
+        return reply;
+    }
+}
@@ -8,9 +8,19 @@ import com.ruben.github_users_rest_api.dto.MetaData;
 import com.ruben.github_users_rest_api.utilities.Checksum;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
 
-import java.util.HashMap;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class CacheServiceTests {
     CacheService cacheService;
@@ -26,7 +36,7 @@ public class CacheServiceTests {
     @Test
     void testPutCacheData(){
         // cache is empty
-        var cache = new HashMap<String, GithubUserReplyDto>();
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache();
         var user = new GithubUserDto();
 
         var userReply = new GithubUserReplyDto();
@@ -44,7 +54,7 @@ public class CacheServiceTests {
         }
 
         var checksum = Checksum.getCRC32Checksum(data.getBytes());
-        cacheService.getFromCache(username, cache, userReply, checksum, metaData);
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, userReply, checksum, metaData);
 
         assert Objects.equals(cache.get(username).getReply().getName(), "octocat guy");
         assert !userReply.getMetaData().isCacheData();
@@ -55,7 +65,7 @@ public class CacheServiceTests {
 
     @Test
     void testGetCacheData(){
-        var cache = new HashMap<String, GithubUserReplyDto>();
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache();
         var user = new GithubUserDto();
 
         var userReply = new GithubUserReplyDto();
@@ -74,15 +84,37 @@ public class CacheServiceTests {
         }
 
         var checksum = Checksum.getCRC32Checksum(data.getBytes());
-        cacheService.getFromCache(username, cache, userReply, checksum, metaData);
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, userReply, checksum, metaData);
 
         assert Objects.equals(userReply.getReply().getName(), "octocat guy");
         assert !userReply.getMetaData().isCacheData();
     }
 
+    // the same body again leaves the cached entry, and its timestamp, as they are
+    @Test
+    void testUnchangedDataIsNotWrittenAgain(){
+        ReplyCache<GithubUserReplyDto> cache = spy(cacheService.createCache());
+        var cachedMetaData = new MetaData();
+        cachedMetaData.setChecksum(42);
+        cachedMetaData.setTimestamp(Instant.now().minus(Duration.ofSeconds(30)));
+        var cachedReply = new GithubUserReplyDto();
+        cachedReply.setMetaData(cachedMetaData);
+        cache.put(username, cachedReply);
+
+        var metaData = new MetaData();
+        var userReply = new GithubUserReplyDto();
+        userReply.setMetaData(metaData);
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, userReply, 42, metaData);
+
+        verify(cache, times(1)).put(any(), any());
+        assert cache.get(username) == cachedReply;
+        assert metaData.getChecksum() == 42;
+        assert metaData.getTimestamp().equals(cachedMetaData.getTimestamp());
+    }
+
     @Test
     void testUpdateCacheData(){
-        var cache = new HashMap<String, GithubUserReplyDto>();
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache();
         var user = new GithubUserDto();
 
         var userReply = new GithubUserReplyDto();
@@ -109,7 +141,7 @@ public class CacheServiceTests {
         }
 
         var checksum = Checksum.getCRC32Checksum(data.getBytes());
-        cacheService.getFromCache(username, cache, newUserReply, checksum, metaData);
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, newUserReply, checksum, metaData);
 
         assert Objects.equals(cache.get(username).getReply().getName(), "super cat guy");
         assert !userReply.getMetaData().isCacheData();
@@ -120,7 +152,7 @@ public class CacheServiceTests {
         int maxCacheSize = 10;
         cacheService = new CacheService(1, 10);
 
-        var cache = new HashMap<String, GithubUserReplyDto>();
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache();
         var user = new GithubUserDto();
 
         var userReply = new GithubUserReplyDto();
@@ -142,15 +174,81 @@ public class CacheServiceTests {
         }
 
         var checksum = Checksum.getCRC32Checksum(data.getBytes());
-        cacheService.getFromCache(username, cache, userReply, checksum, metaData);
-        assert cache.size() == maxCacheSize + 1;
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, userReply, checksum, metaData);
+        // the cache stays bounded, single entries are evicted instead of clearing everything.
+        assert cache.size() == maxCacheSize;
         cache.put(username + (maxCacheSize + 1), userReply);
         cache.put(username + (maxCacheSize + 2), userReply);
 
-        cacheService.getFromCache(username, cache, userReply, checksum, metaData);
-        assert cache.size() == 1;
+        cacheService.getFromCache(username, cache, GithubUserReplyDto::getMetaData, userReply, checksum, metaData);
+        assert cache.size() == maxCacheSize;
 
         assert Objects.equals(userReply.getReply().getName(), "octocat guy");
         assert !userReply.getMetaData().isCacheData();
     }
+
+    // a fresh entry is served as is, nothing is refreshed
+    @Test
+    void testServesFreshEntry() {
+        cacheService = new CacheService(10, 100, false, null, Duration.ZERO, DataSize.ofMegabytes(256), null, null, true, Duration.ofSeconds(30));
+        var cached = new MetaData();
+        cached.setTimestamp(Instant.now());
+        cached.setChecksum(42);
+        var refreshes = new AtomicInteger();
+
+        var served = cacheService.serveWhileRevalidating("user:" + username, cached, refreshes::incrementAndGet);
+
+        assert served != null;
+        assert served.isCacheData();
+        assert !served.isCacheExpired();
+        assert served.getChecksum() == 42;
+        assert refreshes.get() == 0;
+    }
+
+    // an expired entry is still served, and refreshed once however many requests see it
+    @Test
+    void testServesStaleEntryWhileRefreshingOnce() throws InterruptedException {
+        cacheService = new CacheService(10, 100, false, null, Duration.ZERO, DataSize.ofMegabytes(256), null, null, true, Duration.ofSeconds(30));
+        var cached = new MetaData();
+        cached.setTimestamp(Instant.now().minus(Duration.ofMinutes(5)));
+        var refreshes = new AtomicInteger();
+        var refreshed = new CountDownLatch(1);
+        Runnable refresh = () -> {
+            refreshes.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refreshed.countDown();
+        };
+
+        var first = cacheService.serveWhileRevalidating("user:" + username, cached, refresh);
+        var second = cacheService.serveWhileRevalidating("user:" + username, cached, refresh);
+
+        assert first != null && first.isCacheData() && first.isCacheExpired();
+        assert second != null && second.isCacheExpired();
+        assert refreshed.await(5, TimeUnit.SECONDS);
+        assert refreshes.get() == 1;
+    }
+
+    // without stale-while-revalidate github is always called
+    @Test
+    void testStaleWhileRevalidateOff() {
+        var cached = new MetaData();
+        cached.setTimestamp(Instant.now());
+
+        assert cacheService.serveWhileRevalidating("user:" + username, cached, () -> {}) == null;
+    }
+
+    // a fresh window as long as the cache timeout would never serve anything stale
+    @Test
+    void testFreshWindowHasToBeShorterThanTimeout() {
+        try {
+            new CacheService(1, 100, false, null, Duration.ZERO, DataSize.ofMegabytes(256), null, null, true, Duration.ofMinutes(1));
+            assert false;
+        } catch (IllegalArgumentException expected) {
+        }
+        new CacheService(1, 100, false, null, Duration.ZERO, DataSize.ofMegabytes(256), null, null, true, Duration.ofSeconds(59));
+    }
 }
@@ -0,0 +1,152 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+
+public class DiskCacheTests {
+    @TempDir
+    Path directory;
+
+    ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    @Test
+    void testRepliesSurviveRestart() throws Exception {
+        CacheService cacheService = new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache("user", GithubUserReplyDto.class);
+        awaitReady(cache);
+        cache.put("octocat", reply("octocat", 42L));
+        cache.put("removed", reply("removed", 7L));
+        cache.invalidate("removed");
+        cacheService.destroy();
+
+        CacheService restarted = new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> reloaded = restarted.createCache("user", GithubUserReplyDto.class);
+        awaitReady(reloaded);
+
+        GithubUserReplyDto cached = reloaded.get("octocat");
+        assert cached != null;
+        assert cached.getReply().getLogin().equals("octocat");
+        assert cached.getMetaData().getChecksum() == 42L;
+        assert reloaded.get("removed") == null;
+        restarted.destroy();
+    }
+
+    @Test
+    void testCorruptTailIsTruncated() throws Exception {
+        CacheService cacheService = new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache("user", GithubUserReplyDto.class);
+        awaitReady(cache);
+        cache.put("octocat", reply("octocat", 42L));
+        cacheService.destroy();
+
+        // a torn write from a crash mid append.
+        Path segment = directory.resolve("user.seg");
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        CacheService restarted = new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> reloaded = restarted.createCache("user", GithubUserReplyDto.class);
+        awaitReady(reloaded);
+
+        assert reloaded.get("octocat") != null;
+        assert Files.size(segment) == size;
+        restarted.destroy();
+    }
+
+    @Test
+    void testDiskTierHasItsOwnTimeToLive() throws Exception {
+        // kept in memory for a minute, but not at all on disk.
+        CacheService cacheService = new CacheService(1, 100, true, directory.toString(), Duration.ZERO, DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache("user", GithubUserReplyDto.class);
+        awaitReady(cache);
+        cache.put("octocat", reply("octocat", 42L));
+        assert cache.get("octocat") != null;
+        cacheService.destroy();
+
+        CacheService restarted = new CacheService(1, 100, true, directory.toString(), Duration.ZERO, DataSize.ofMegabytes(256), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> reloaded = restarted.createCache("user", GithubUserReplyDto.class);
+        awaitReady(reloaded);
+
+        assert reloaded.get("octocat") == null;
+        restarted.destroy();
+    }
+
+    @Test
+    void testSegmentIsBounded() throws Exception {
+        // two cache entries give the disk tier room for eight.
+        CacheService cacheService = new CacheService(1, 2, true, directory.toString(), Duration.ofHours(24), DataSize.ofKilobytes(4), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> cache = cacheService.createCache("user", GithubUserReplyDto.class);
+        awaitReady(cache);
+        for (int i = 0; i < 100; i++) {
+            cache.put("user" + i, reply("user" + i, i));
+        }
+        cacheService.destroy();
+        assert Files.size(directory.resolve("user.seg")) <= DataSize.ofKilobytes(4).toBytes();
+
+        CacheService restarted = new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofKilobytes(4), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+        ReplyCache<GithubUserReplyDto> reloaded = restarted.createCache("user", GithubUserReplyDto.class);
+        awaitReady(reloaded);
+
+        int entries = 0;
+        for (int i = 0; i < 100; i++) {
+            if (reloaded.get("user" + i) != null) {
+                entries++;
+            }
+        }
+        assert entries > 0 && entries <= 8;
+        assert reloaded.get("user99") != null;
+        restarted.destroy();
+    }
+
+    @Test
+    void testMaxSizeHasToFitTheMapping() {
+        try {
+            new CacheService(1, 100, true, directory.toString(), Duration.ofHours(24), DataSize.ofGigabytes(3), objectMapper, new SimpleMeterRegistry(), false, Duration.ofSeconds(30));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            assert e.getMessage().contains("app.cache.disk.max-size");
+        }
+    }
+
+    private GithubUserReplyDto reply(String login, long checksum) {
+        GithubUserDto user = new GithubUserDto();
+        user.setLogin(login);
+        MetaData metaData = new MetaData();
+        metaData.setChecksum(checksum);
+        metaData.setTimestamp(Instant.now());
+        GithubUserReplyDto reply = new GithubUserReplyDto();
+        reply.setReply(user);
+        reply.setMetaData(metaData);
+        return reply;
+    }
+
+    // the index loads in the background.
+    private void awaitReady(ReplyCache<GithubUserReplyDto> cache) throws InterruptedException {
+        for (int i = 0; i < 100 && !cache.isDiskReady(); i++) {
+            Thread.sleep(20);
+        }
+        assert cache.isDiskReady();
+    }
+}
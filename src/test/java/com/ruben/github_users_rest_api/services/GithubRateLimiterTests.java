@@ -0,0 +1,89 @@
+package com.ruben.github_users_rest_api.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+public class GithubRateLimiterTests {
+    GithubRateLimiter rateLimiter;
+    SimpleMeterRegistry meterRegistry;
+    int reserve = 100;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new GithubRateLimiter(meterRegistry, reserve, 20);
+    }
+
+    private void respond(long remaining) {
+        var headers = new HttpHeaders();
+        headers.add("X-RateLimit-Remaining", String.valueOf(remaining));
+        headers.add("X-RateLimit-Reset", String.valueOf(Instant.now().plusSeconds(3600).getEpochSecond()));
+        rateLimiter.update(headers);
+    }
+
+    @Test
+    void testAllowsEverythingBeforeTheFirstResponse() {
+        assert rateLimiter.tryAcquire(GithubRateLimiter.Priority.MISS);
+        assert rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+    }
+
+    @Test
+    void testRefreshesStopAtTheReserve() {
+        respond(reserve);
+
+        assert !rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+        assert rateLimiter.tryAcquire(GithubRateLimiter.Priority.MISS);
+        assert rateLimiter.getRemaining() == reserve - 1;
+        assert meterRegistry.counter("github.ratelimit.deferred", "priority", "refresh").count() == 1;
+    }
+
+    @Test
+    void testNothingGoesThroughOnceTheBudgetIsSpent() {
+        respond(0);
+
+        assert !rateLimiter.tryAcquire(GithubRateLimiter.Priority.MISS);
+        assert !rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+    }
+
+    @Test
+    void testRefreshesArePacedByTheBucket() {
+        respond(5000);
+
+        // the bucket starts full with the burst size, refills are spread over the hour.
+        for (int i = 0; i < 20; i++) {
+            assert rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+        }
+        assert !rateLimiter.tryAcquire(GithubRateLimiter.Priority.REFRESH);
+        assert rateLimiter.tryAcquire(GithubRateLimiter.Priority.MISS);
+    }
+
+    @Test
+    void testEveryRequestIsChargedButNotModifiedIsFree() {
+        respond(5000);
+
+        // 304s don't count against github's limit, so they never empty the bucket.
+        for (int i = 0; i < 40; i++) {
+            var response = rateLimiter.charge(GithubRateLimiter.Priority.REFRESH,
+                    () -> Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).<byte[]>build())).block();
+            assert response != null;
+        }
+
+        for (int i = 0; i < 20; i++) {
+            rateLimiter.charge(GithubRateLimiter.Priority.REFRESH, () -> Mono.just(ResponseEntity.ok(new byte[0]))).block();
+        }
+        Boolean charged = rateLimiter.charge(GithubRateLimiter.Priority.REFRESH, () -> Mono.just(ResponseEntity.ok(new byte[0])))
+                .map(response -> true)
+                .onErrorReturn(RateLimitException.class, false)
+                .block();
+        assert Boolean.FALSE.equals(charged);
+        assert meterRegistry.counter("github.ratelimit.deferred", "priority", "refresh").count() == 1;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.exceptions.RateLimitException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GithubRequestHedgerTests {
+    SimpleMeterRegistry meterRegistry;
+    GithubRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new GithubRateLimiter(meterRegistry, 100, 20);
+    }
+
+    // the max timeout is used until there are enough samples, then it follows the p99
+    @Test
+    void testAdaptiveTimeout() {
+        var hedger = hedger(false, 0.05, Duration.ofMillis(10));
+        assert hedger.timeout("user").equals(Duration.ofSeconds(10));
+
+        warmUp(hedger);
+
+        var timeout = hedger.timeout("user");
+        assert timeout.compareTo(Duration.ofMillis(10)) >= 0;
+        assert timeout.compareTo(Duration.ofSeconds(1)) < 0;
+    }
+
+    // a stuck call is hedged after the p95, and the hedge answers
+    @Test
+    void testHedgesSlowCall() {
+        var hedger = hedger(true, 1.0, Duration.ofSeconds(1));
+        warmUp(hedger);
+        var calls = new AtomicInteger();
+
+        var reply = hedger.call("user", () -> calls.incrementAndGet() == 1
+                ? Mono.<String>never()
+                : Mono.just("hedged")).block(Duration.ofSeconds(2));
+
+        assert "hedged".equals(reply);
+        assert calls.get() == 2;
+        assert meterRegistry.get("github.hedge").tag("outcome", "won").counter().count() == 1;
+    }
+
+    // without hedge budget a stuck call times out
+    @Test
+    void testTimesOutWithoutHedgeBudget() {
+        var hedger = hedger(true, 0, Duration.ofMillis(100));
+        warmUp(hedger);
+        var calls = new AtomicInteger();
+
+        Throwable error = null;
+        try {
+            hedger.call("user", () -> {
+                calls.incrementAndGet();
+                return Mono.<String>never();
+            }).block(Duration.ofSeconds(5));
+        } catch (Exception e) {
+            error = Exceptions.unwrap(e);
+        }
+
+        assert error instanceof TimeoutException;
+        assert calls.get() == 1;
+        assert meterRegistry.get("github.hedge").tag("outcome", "denied").counter().count() == 1;
+    }
+
+    // an error from the first call isn't held back waiting for a hedge
+    @Test
+    void testPassesOnErrors() {
+        var hedger = hedger(true, 1.0, Duration.ofSeconds(1));
+        warmUp(hedger);
+
+        Throwable error = null;
+        try {
+            hedger.call("user", () -> Mono.<String>error(new RateLimitException())).block(Duration.ofMillis(500));
+        } catch (Exception e) {
+            error = Exceptions.unwrap(e);
+        }
+
+        assert error instanceof RateLimitException;
+    }
+
+    private GithubRequestHedger hedger(boolean hedgeEnabled, double hedgeShare, Duration minTimeout) {
+        return new GithubRequestHedger(meterRegistry, rateLimiter, hedgeEnabled, hedgeShare,
+                minTimeout, Duration.ofSeconds(10), 3, 5);
+    }
+
+    private void warmUp(GithubRequestHedger hedger) {
+        for (int i = 0; i < 5; i++) {
+            hedger.call("user", () -> Mono.delay(Duration.ofMillis(10)).thenReturn("octocat")).block();
+        }
+    }
+}
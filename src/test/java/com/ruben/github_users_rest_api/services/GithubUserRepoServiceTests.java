@@ -1,14 +1,15 @@
 package com.ruben.github_users_rest_api.services;
 
 import com.ruben.github_users_rest_api.dto.*;
-import com.ruben.github_users_rest_api.producers.GithubReposProducer;
-import com.ruben.github_users_rest_api.producers.GithubUserProducer;
+import com.ruben.github_users_rest_api.consumers.GithubReposConsumer;
+import com.ruben.github_users_rest_api.consumers.GithubUserConsumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
@@ -17,32 +18,32 @@ public class GithubUserRepoServiceTests {
 
     GithubUserReposService githubUserReposService;
     @Mock
-    GithubReposProducer reposProducer;
+    GithubReposConsumer reposConsumer;
     @Mock
-    GithubUserProducer userProducer;
+    GithubUserConsumer userConsumer;
 
     @BeforeEach
     public void setup() {
         MockitoAnnotations.openMocks(this);
-        githubUserReposService = new GithubUserReposService(reposProducer, userProducer);
+        githubUserReposService = new GithubUserReposService(reposConsumer, userConsumer, Duration.ofMillis(200));
     }
 
     @Test
-    public void TestBadReplyFromConsumers() throws IOException {
+    public void TestBadReplyFromConsumers() {
         var user = new GithubUserReplyDto();
         var repos = new GithubReposReplyDto();
 
-        when(userProducer.sendAndReceive(any())).thenReturn(user);
-        when(reposProducer.sendAndReceive(any())).thenReturn(repos);
+        when(userConsumer.getUser(any())).thenReturn(user);
+        when(reposConsumer.getRepos(any())).thenReturn(repos);
 
-        var reply = githubUserReposService.getUserRepos("user");
+        var reply = githubUserReposService.getUserRepos("user").block();
         assert reply != null;
         assert reply.getRepos() == null;
         assert reply.getUsername() == null;
     }
 
     @Test
-    public void GoodReplyFromConsumers() throws IOException {
+    public void GoodReplyFromConsumers() {
         var user = new GithubUserReplyDto();
         var userDto = new GithubUserDto();
         userDto.setLogin("octocatName");
@@ -53,10 +54,10 @@ public class GithubUserRepoServiceTests {
         repo.setName("octocat repo");
         repos.setRepos(new GithubRepoDto[]{repo});
         repos.setMetaData(new MetaData());
-        when(userProducer.sendAndReceive(any())).thenReturn(user);
-        when(reposProducer.sendAndReceive(any())).thenReturn(repos);
+        when(userConsumer.getUser(any())).thenReturn(user);
+        when(reposConsumer.getRepos(any())).thenReturn(repos);
 
-        var reply = githubUserReposService.getUserRepos("user");
+        var reply = githubUserReposService.getUserRepos("user").block();
         assert reply != null;
         assert reply.getRepos() != null;
         assert reply.getUsername() != null;
@@ -64,4 +65,31 @@ public class GithubUserRepoServiceTests {
         assert reply.getUsername().equals("octocatName");
         assert reply.getRepos().getFirst().getName().equals("octocat repo");
     }
+
+    @Test
+    public void PartialReplyWhenReposTimeOut() {
+        var user = new GithubUserReplyDto();
+        var userDto = new GithubUserDto();
+        userDto.setLogin("octocatName");
+        user.setReply(userDto);
+        user.setMetaData(new MetaData());
+        // the repos stay blocked until the test is done, then the timed out thread is let go.
+        var reposBlocked = new CountDownLatch(1);
+        when(userConsumer.getUser(any())).thenReturn(user);
+        when(reposConsumer.getRepos(any())).thenAnswer(invocation -> {
+            reposBlocked.await();
+            return new GithubReposReplyDto();
+        });
+
+        try {
+            var reply = githubUserReposService.getUserRepos("user").block();
+            assert reply != null;
+            assert reply.getUsername().equals("octocatName");
+            assert reply.getRepos() == null;
+            assert !reply.getUserMetaData().isError();
+            assert reply.getRepoMetaData().isError();
+        } finally {
+            reposBlocked.countDown();
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HotKeyRefresherTests {
+    HotKeyRefresher refresher;
+    GithubRateLimiter rateLimiter;
+    ReplyCache<GithubUserReplyDto> cache;
+    List<String> refreshed;
+
+    @BeforeEach
+    void setUp() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var cacheService = new CacheService(1, 100);
+        rateLimiter = new GithubRateLimiter(meterRegistry, 100, 20);
+        // refreshes run on the calling thread, so they are done once a run returns.
+        refresher = new HotKeyRefresher(cacheService, rateLimiter, meterRegistry, Duration.ofSeconds(30), Duration.ofSeconds(30), 2, 2, 100,
+                Schedulers.immediate());
+        cache = cacheService.createCache();
+        refreshed = new ArrayList<>();
+        refresher.register("user", cache, GithubUserReplyDto::getMetaData, refreshed::add);
+    }
+
+    @Test
+    void testRefreshesHotKeysOnly() {
+        record("octocat", 3);
+        record("once", 1);
+
+        refresher.refreshHotKeys();
+
+        assert refreshed.equals(List.of("octocat"));
+    }
+
+    // entries are refreshed shortly before they expire, not while they are fresh
+    @Test
+    void testRefreshesAheadOfExpiry() {
+        cache.put("fresh", reply(Instant.now()));
+        cache.put("expiring", reply(Instant.now().minus(Duration.ofSeconds(50))));
+        record("fresh", 2);
+        record("expiring", 2);
+
+        refresher.refreshHotKeys();
+
+        assert refreshed.equals(List.of("expiring"));
+    }
+
+    @Test
+    void testRefreshesTopKeys() {
+        record("octocat", 5);
+        record("hubot", 4);
+        record("monalisa", 3);
+
+        refresher.refreshHotKeys();
+
+        assert refreshed.equals(List.of("octocat", "hubot"));
+    }
+
+    // counts halve on every run, so keys nobody asks for anymore go cold
+    @Test
+    void testKeysGoCold() {
+        record("octocat", 2);
+
+        refresher.refreshHotKeys();
+        refresher.refreshHotKeys();
+
+        assert refreshed.equals(List.of("octocat"));
+    }
+
+    // refreshes only use the budget above the reserve
+    @Test
+    void testNoRefreshWithoutSpareBudget() {
+        var headers = new HttpHeaders();
+        headers.add("X-RateLimit-Remaining", "50");
+        headers.add("X-RateLimit-Reset", String.valueOf(Instant.now().plus(Duration.ofHours(1)).getEpochSecond()));
+        rateLimiter.update(headers);
+        record("octocat", 3);
+
+        refresher.refreshHotKeys();
+
+        assert refreshed.isEmpty();
+    }
+
+    // a refresh ahead shorter than the interval could skip over an entry's due window
+    @Test
+    void testRefreshAheadCoversTheInterval() {
+        try {
+            new HotKeyRefresher(new CacheService(1, 100), rateLimiter, new SimpleMeterRegistry(),
+                    Duration.ofSeconds(30), Duration.ofSeconds(20), 2, 2, 100);
+            assert false;
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // a slow refresh doesn't hold up the run that started it
+    @Test
+    void testRefreshesRunInTheBackground() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var done = new CountDownLatch(1);
+        refresher = new HotKeyRefresher(new CacheService(1, 100), rateLimiter, new SimpleMeterRegistry(),
+                Duration.ofSeconds(30), Duration.ofSeconds(30), 2, 2, 100);
+        refresher.register("user", cache, GithubUserReplyDto::getMetaData, key -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        record("octocat", 2);
+
+        refresher.refreshHotKeys();
+
+        assert done.getCount() == 1;
+        release.countDown();
+        assert done.await(5, TimeUnit.SECONDS);
+    }
+
+    private void record(String username, int times) {
+        for (int i = 0; i < times; i++) {
+            refresher.record("user", username);
+        }
+    }
+
+    private GithubUserReplyDto reply(Instant timestamp) {
+        var metaData = new MetaData();
+        metaData.setTimestamp(timestamp);
+        var reply = new GithubUserReplyDto();
+        reply.setMetaData(metaData);
+        return reply;
+    }
+}
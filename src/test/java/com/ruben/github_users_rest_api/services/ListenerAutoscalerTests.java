@@ -0,0 +1,108 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ListenerAutoscalerTests {
+    ListenerAutoscaler autoscaler;
+    SimpleMeterRegistry meterRegistry;
+
+    @Mock
+    private AmqpAdmin amqpAdmin;
+
+    @Mock
+    private RabbitListenerEndpointRegistry endpointRegistry;
+
+    @Mock
+    private SimpleMessageListenerContainer container;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        var environment = new MockEnvironment().withProperty("app.amqp.listener.repos.max-concurrency", "16");
+        autoscaler = new ListenerAutoscaler(amqpAdmin, endpointRegistry, meterRegistry, environment,
+                true, 4, 64, 1, Duration.ofMillis(500));
+
+        when(endpointRegistry.getListenerContainers()).thenReturn(List.of(container));
+        when(container.getQueueNames()).thenReturn(new String[]{AppConfiguration.GET_REPOS_QUEUE});
+        when(container.getListenerId()).thenReturn("repos");
+    }
+
+    @Test
+    void testScalesUpBackedUpQueue() {
+        var decision = autoscaler.decide(4, 4, 64, 1, 100, Duration.ZERO);
+
+        assert decision.action().equals("scale-up");
+        assert decision.concurrency() == 8;
+    }
+
+    // messages waiting too long count as backed up even when few are queued
+    @Test
+    void testScalesUpSlowQueue() {
+        var decision = autoscaler.decide(4, 4, 64, 1, 1, Duration.ofSeconds(2));
+
+        assert decision.concurrency() == 8;
+    }
+
+    @Test
+    void testHoldsAtMaxConcurrency() {
+        var decision = autoscaler.decide(64, 4, 64, 1, 1000, Duration.ZERO);
+
+        assert decision.action().equals("hold");
+        assert decision.concurrency() == 64;
+    }
+
+    // an idle queue never drops below the listener's configured concurrency
+    @Test
+    void testScalesDownIdleQueue() {
+        var scaleDown = autoscaler.decide(8, 4, 64, 1, 0, Duration.ZERO);
+        var atListenerConcurrency = autoscaler.decide(4, 4, 64, 1, 0, Duration.ZERO);
+
+        assert scaleDown.action().equals("scale-down") && scaleDown.concurrency() == 7;
+        assert atListenerConcurrency.action().equals("hold");
+    }
+
+    // the per listener max concurrency caps the container
+    @Test
+    void testResizesContainer() {
+        when(amqpAdmin.getQueueInfo(AppConfiguration.GET_REPOS_QUEUE))
+                .thenReturn(new QueueInformation(AppConfiguration.GET_REPOS_QUEUE, 500, 4));
+
+        autoscaler.autoscale();
+        autoscaler.autoscale();
+        autoscaler.autoscale();
+
+        verify(container).setConcurrentConsumers(8);
+        verify(container).setConcurrentConsumers(16);
+        verify(container, never()).setPrefetchCount(anyInt());
+        assert meterRegistry.get("listener.autoscale.concurrency").tag("queue", AppConfiguration.GET_REPOS_QUEUE).gauge().value() == 16;
+        assert meterRegistry.get("listener.autoscale.decisions").tag("action", "scale-up").counter().count() == 2;
+    }
+
+    @Test
+    void testIgnoresOtherQueues() {
+        when(container.getQueueNames()).thenReturn(new String[]{"amq.gen-cache-changes"});
+
+        autoscaler.autoscale();
+
+        verify(amqpAdmin, never()).getQueueInfo("amq.gen-cache-changes");
+    }
+}
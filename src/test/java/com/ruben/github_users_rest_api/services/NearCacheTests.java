@@ -0,0 +1,99 @@
+package com.ruben.github_users_rest_api.services;
+
+import com.ruben.github_users_rest_api.dto.GithubRepoDto;
+import com.ruben.github_users_rest_api.dto.GithubReposReplyDto;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class NearCacheTests {
+    AtomicInteger requests;
+    NearCache nearCache;
+
+    @BeforeEach
+    void setUp() {
+        requests = new AtomicInteger();
+        nearCache = new NearCache(new SimpleMeterRegistry(), Duration.ofSeconds(5), 100, DataSize.ofMegabytes(1), null);
+    }
+
+    @Test
+    void testHotUserSkipsTheBroker() {
+        nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(false, null)).block();
+        GithubUserReplyDto reply = nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(false, null)).block();
+
+        assert reply != null;
+        assert reply.getReply().getName().equals("octocat");
+        assert requests.get() == 1;
+    }
+
+    @Test
+    void testConcurrentMissesShareOneRequest() {
+        Supplier<Mono<GithubUserReplyDto>> slow = () -> request(false, null).get().delayElement(Duration.ofMillis(100));
+        Flux.merge(
+                nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, slow),
+                nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, slow),
+                nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, slow)
+        ).blockLast();
+
+        assert requests.get() == 1;
+    }
+
+    @Test
+    void testErrorRepliesAreNotCached() {
+        nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(true, null)).block();
+        nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(true, null)).block();
+
+        assert requests.get() == 2;
+    }
+
+    @Test
+    void testStaleCacheDataIsRequestedAgain() {
+        nearCache = new NearCache(new SimpleMeterRegistry(), Duration.ofSeconds(5), 100, DataSize.ofMegabytes(1), Duration.ofSeconds(30));
+        Instant old = Instant.now().minusSeconds(60);
+        nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(false, old)).block();
+        nearCache.get("user", "octocat", GithubUserReplyDto::getMetaData, request(false, old)).block();
+
+        assert requests.get() == 2;
+    }
+
+    @Test
+    void testRepliesAreWeighedByTheirRepos() {
+        var small = new GithubReposReplyDto();
+        small.setRepos(new GithubRepoDto[10]);
+        var large = new GithubReposReplyDto();
+        large.setRepos(new GithubRepoDto[1000]);
+
+        // a user weighs the min weight of 1MB / 100 entries, repos add to it.
+        assert nearCache.weigh(new GithubUserReplyDto()) == 1024 * 1024 / 100;
+        assert nearCache.weigh(small) > 1024 * 1024 / 100;
+        assert nearCache.weigh(large) > 1024 * 1024;
+    }
+
+    // a reply as the service sends it, cacheTime marks data served from the service cache.
+    private Supplier<Mono<GithubUserReplyDto>> request(boolean error, Instant cacheTime) {
+        return () -> Mono.fromSupplier(() -> {
+            requests.incrementAndGet();
+            GithubUserDto user = new GithubUserDto();
+            user.setName("octocat");
+            MetaData metaData = new MetaData();
+            metaData.setError(error);
+            metaData.setCacheData(cacheTime != null);
+            metaData.setTimestamp(cacheTime != null ? cacheTime : Instant.now());
+            GithubUserReplyDto reply = new GithubUserReplyDto();
+            reply.setReply(user);
+            reply.setMetaData(metaData);
+            return reply;
+        });
+    }
+}
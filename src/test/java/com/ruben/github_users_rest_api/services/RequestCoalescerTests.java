@@ -0,0 +1,62 @@
+package com.ruben.github_users_rest_api.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class RequestCoalescerTests {
+    RequestCoalescer coalescer;
+    SimpleMeterRegistry meterRegistry;
+    AtomicInteger fetches;
+    Supplier<Mono<String>> fetch;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new RequestCoalescer(meterRegistry);
+        fetches = new AtomicInteger();
+        fetch = () -> {
+            fetches.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(100)).thenReturn("octocat");
+        };
+    }
+
+    @Test
+    void testConcurrentRequestsShareOneFetch() {
+        var replies = Flux.merge(
+                coalescer.coalesce("user", "octocat", fetch),
+                coalescer.coalesce("user", "octocat", fetch),
+                coalescer.coalesce("user", "octocat", fetch)
+        ).collectList().block();
+
+        assert replies != null;
+        assert replies.size() == 3;
+        assert replies.stream().allMatch("octocat"::equals);
+        assert fetches.get() == 1;
+        assert meterRegistry.counter("github.requests.coalesced", "resource", "user").count() == 2;
+    }
+
+    @Test
+    void testDifferentResourcesAreNotCoalesced() {
+        Flux.merge(
+                coalescer.coalesce("user", "octocat", fetch),
+                coalescer.coalesce("repos", "octocat", fetch)
+        ).blockLast();
+
+        assert fetches.get() == 2;
+    }
+
+    @Test
+    void testCompletedFetchIsNotReused() {
+        coalescer.coalesce("user", "octocat", fetch).block();
+        coalescer.coalesce("user", "octocat", fetch).block();
+
+        assert fetches.get() == 2;
+    }
+}
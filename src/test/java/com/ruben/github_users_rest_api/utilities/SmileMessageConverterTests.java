@@ -0,0 +1,70 @@
+package com.ruben.github_users_rest_api.utilities;
+
+import com.ruben.github_users_rest_api.AppConfiguration;
+import com.ruben.github_users_rest_api.dto.GithubUserDto;
+import com.ruben.github_users_rest_api.dto.GithubUserReplyDto;
+import com.ruben.github_users_rest_api.dto.MetaData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+public class SmileMessageConverterTests {
+    GithubUserReplyDto reply;
+
+    @BeforeEach
+    void setUp() {
+        var user = new GithubUserDto();
+        user.setLogin("octocat");
+        user.setName("octocat user");
+        var metaData = new MetaData();
+        metaData.setTimestamp(Instant.parse("2025-01-01T00:00:00Z"));
+        reply = new GithubUserReplyDto();
+        reply.setReply(user);
+        reply.setMetaData(metaData);
+    }
+
+    @Test
+    void testSmileRoundTrip() {
+        var converter = new AppConfiguration().contentTypeConverter("smile");
+
+        var message = converter.toMessage(reply, new MessageProperties());
+
+        assert message.getMessageProperties().getContentType().equals(SmileMessageConverter.CONTENT_TYPE);
+        assert converter.fromMessage(message) instanceof GithubUserReplyDto read
+                && read.getReply().getName().equals("octocat user")
+                && read.getMetaData().getTimestamp().equals(reply.getMetaData().getTimestamp());
+    }
+
+    // nodes on different formats still read each other's messages
+    @Test
+    void testReadsEitherFormat() {
+        var jsonConverter = new AppConfiguration().contentTypeConverter("json");
+        var smileConverter = new AppConfiguration().contentTypeConverter("smile");
+
+        var jsonMessage = jsonConverter.toMessage(reply, new MessageProperties());
+        var smileMessage = smileConverter.toMessage(reply, new MessageProperties());
+
+        assert smileMessage.getBody().length < jsonMessage.getBody().length;
+        assert smileConverter.fromMessage(jsonMessage) instanceof GithubUserReplyDto fromJson
+                && fromJson.getReply().getLogin().equals("octocat");
+        assert jsonConverter.fromMessage(smileMessage) instanceof GithubUserReplyDto fromSmile
+                && fromSmile.getReply().getLogin().equals("octocat");
+    }
+
+    // unset github fields are only left out of messages in lean mode
+    @Test
+    void testLeanLeavesUnsetFieldsOut() {
+        var full = new String(new AppConfiguration().contentTypeConverter("json").toMessage(reply, new MessageProperties()).getBody(), StandardCharsets.UTF_8);
+        var leanConverter = new AppConfiguration().contentTypeConverter("json", true);
+        var leanMessage = leanConverter.toMessage(reply, new MessageProperties());
+        var lean = new String(leanMessage.getBody(), StandardCharsets.UTF_8);
+
+        assert full.contains("\"blog\"");
+        assert !lean.contains("\"blog\"") && lean.contains("\"octocat user\"");
+        assert leanConverter.fromMessage(leanMessage) instanceof GithubUserReplyDto read
+                && read.getReply().getName().equals("octocat user");
+    }
+}